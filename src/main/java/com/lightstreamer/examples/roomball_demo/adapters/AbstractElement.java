@@ -25,90 +25,18 @@ import org.jbox2d.dynamics.World;
 
 abstract public class AbstractElement implements Element {
 
-    // Nested Classes ----------------------------------------------------------
-
-    static class Impulse {
+    // Constants ---------------------------------------------------------------
 
-        public static final Impulse NULL = new Impulse(0, 0);
+    /**
+     * Marks a position never published.
+     */
+    private static final long NOT_PUBLISHED = Long.MIN_VALUE;
 
-        private final int intensityX;
-        private final int intensityY;
+    public static final int DEFAULT_POSITION_GRID = 1;
 
-        public Impulse(int intensityX, int intensityY) {
-            super();
-            this.intensityX = intensityX;
-            this.intensityY = intensityY;
-        }
+    public static final int DEFAULT_VELOCITY_THRESHOLD = 10;
 
-        public float getIntensityX() {
-            return intensityX;
-        }
-        public float getIntensityY() {
-            return intensityY;
-        }
-
-        /**
-         * Sum two Impulse.
-         * If the two Impulse have the same direction, then the two Impulses
-         * are not added.
-         *
-         * @param that The Impulse to add
-         * @return The resulting Impulse
-         */
-        public Impulse sum(Impulse that) {
-
-            int correctedX;
-            if ((this.intensityX > 0 &&  that.intensityX > 0) ||
-                    (this.intensityX < 0 &&  that.intensityX < 0) )
-            {
-                correctedX = 0;
-            } else {
-                correctedX = that.intensityX;
-            }
-
-            int correctedY;
-            if ((this.intensityY > 0 &&  that.intensityY > 0) ||
-                    (this.intensityY < 0 &&  that.intensityY < 0) )
-            {
-                correctedY = 0;
-            } else {
-                correctedY = that.intensityY;
-            }
-
-            int newX = this.intensityX + correctedX;
-            int newY = this.intensityY + correctedY;
-            return new Impulse(newX, newY);
-        }
-
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + intensityX;
-            result = prime * result + intensityY;
-            return result;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            Impulse other = (Impulse) obj;
-            if (intensityX != other.intensityX)
-                return false;
-            if (intensityY != other.intensityY)
-                return false;
-            return true;
-        }
-    }
-
-    // Constants ---------------------------------------------------------------
-
-    private static final double EPSILON = 0.1;
+    private static final int[] NO_DETAIL_LEVELS = new int[0];
 
     // Member Fields  ----------------------------------------------------------
 
@@ -116,17 +44,82 @@ abstract public class AbstractElement implements Element {
 
     private final Body body;
 
-    private Double lastPosX = Double.NaN;
-    private Double lastPosY = Double.NaN;
-
-    private Double currPosX = Double.NaN;
-    private Double currPosY = Double.NaN;
+    /**
+     * Size of the grid the published positions are snapped to.
+     */
+    private int positionGrid = DEFAULT_POSITION_GRID;
+
+    /**
+     * The position last published, as snapped to the grid.
+     */
+    private long lastPosX = NOT_PUBLISHED;
+    private long lastPosY = NOT_PUBLISHED;
+
+    private double currPosX = Double.NaN;
+    private double currPosY = Double.NaN;
+
+    /**
+     * Whether the element is published for clients that extrapolate its
+     * motion: the velocity is published along with the position, and only
+     * when it changes by more than velocityThreshold or upon a contact.
+     */
+    private boolean extrapolation = false;
+    private int velocityThreshold = DEFAULT_VELOCITY_THRESHOLD;
+
+    private double currVelX = 0;
+    private double currVelY = 0;
+
+    /**
+     * The velocity last published, rounded.
+     */
+    private long lastVelX = NOT_PUBLISHED;
+    private long lastVelY = NOT_PUBLISHED;
+
+    /**
+     * Whether a contact has occurred since last published.
+     */
+    private boolean contactPending = false;
+
+    /**
+     * Whether an update has been requested since last published, regardless
+     * of the velocity, as for an element that left its interest cell.
+     */
+    private boolean updatePending = false;
+
+    /**
+     * Reused for every impulse applied to the body.
+     */
+    private final Vec2 impulseVec = new Vec2();
+
+    /**
+     * The cell of the interest grid the element is indexed in, and its
+     * position within the cell; maintained by the SpatialGrid.
+     */
+    private int interestCell = -1;
+    private int interestSlot = -1;
+
+    /**
+     * Number of frames the element has been changed without being
+     * published, because of the update budget.
+     */
+    private int skippedFrames = 0;
+
+    /**
+     * The grid of each level of detail, shared by the elements of the room,
+     * and the position last published at each level, as snapped to that
+     * grid; each level tracks its changes independently.
+     */
+    private int[] detailGrids = NO_DETAIL_LEVELS;
+    private long[] detailPosX = new long[0];
+    private long[] detailPosY = new long[0];
 
     // Constructor -------------------------------------------------------------
 
     public AbstractElement(String name,Body body) {
         this.name = name;
         this.body = body;
+        // let the contact listener of the world get to the element
+        this.body.setUserData(this);
         synchWithWorld();
     }
 
@@ -144,19 +137,171 @@ abstract public class AbstractElement implements Element {
 
     @Override
     public void setAsChanged() {
-        this.lastPosX = Double.NaN;
-        this.lastPosY = Double.NaN;
+        this.lastPosX = NOT_PUBLISHED;
+        this.lastPosY = NOT_PUBLISHED;
+        this.lastVelX = NOT_PUBLISHED;
+        this.lastVelY = NOT_PUBLISHED;
     }
 
     @Override
     public void setAsNotChanged() {
-        this.lastPosX = currPosX;
-        this.lastPosY = currPosY;
+        this.lastPosX = getPublishableX();
+        this.lastPosY = getPublishableY();
+        this.lastVelX = getPublishableVelX();
+        this.lastVelY = getPublishableVelY();
+        this.contactPending = false;
+        this.updatePending = false;
+        this.skippedFrames = 0;
+    }
+
+    /**
+     * Switches the extrapolation mode on or off.
+     *
+     * @param velocityThreshold the change of velocity, on either axis, in
+     * world units per second, that makes the element changed.
+     */
+    public void setExtrapolation(boolean extrapolation, int velocityThreshold) {
+        this.extrapolation = extrapolation;
+        this.velocityThreshold = Math.max(0, velocityThreshold);
+    }
+
+    public boolean isExtrapolated() {
+        return extrapolation;
+    }
+
+    /**
+     * Notifies a contact with another body; called by the contact listener
+     * of the world during the step.
+     */
+    public void notifyContact() {
+        this.contactPending = true;
+    }
+
+    /**
+     * Makes the element changed in extrapolation mode, until next published,
+     * even if its velocity is not.
+     */
+    public void requestUpdate() {
+        this.updatePending = true;
+    }
+
+    /**
+     * @return the current velocity on the x axis, as it would be published.
+     */
+    public long getPublishableVelX() {
+        return Math.round(currVelX);
+    }
+
+    /**
+     * @return the current velocity on the y axis, as it would be published.
+     */
+    public long getPublishableVelY() {
+        return Math.round(currVelY);
+    }
+
+    /**
+     * Sets the levels of detail the element is published at, besides the
+     * full one, by the grid of each level.
+     */
+    public void setDetailLevels(int[] detailGrids) {
+        this.detailGrids = detailGrids;
+        this.detailPosX = new long[detailGrids.length];
+        this.detailPosY = new long[detailGrids.length];
+        setAsChanged(0, detailGrids.length);
+    }
+
+    /**
+     * @return whether the element has changed since last published at the
+     * given level of detail.
+     */
+    public boolean isChanged(int level) {
+        return posXIsChanged(level) || posYIsChanged(level);
+    }
+
+    public void setAsNotChanged(int level) {
+        this.detailPosX[level] = getPublishableX(level);
+        this.detailPosY[level] = getPublishableY(level);
+    }
+
+    /**
+     * @return the current x, as it would be published at the given level of
+     * detail.
+     */
+    public long getPublishableX(int level) {
+        return quantize(currPosX, detailGrids[level]);
+    }
+
+    /**
+     * @return the current y, as it would be published at the given level of
+     * detail.
+     */
+    public long getPublishableY(int level) {
+        return quantize(currPosY, detailGrids[level]);
+    }
+
+    /**
+     * @return the distance, in world units, between the current position and
+     * the one last published, or Long.MAX_VALUE if never published.
+     */
+    public long getPendingDisplacement() {
+        if (lastPosX == NOT_PUBLISHED || lastPosY == NOT_PUBLISHED) {
+            return Long.MAX_VALUE;
+        }
+        return Math.abs(getPublishableX() - lastPosX) + Math.abs(getPublishableY() - lastPosY);
+    }
+
+    public int getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * Records that the element, though changed, has not been published on
+     * this frame.
+     */
+    public void skipFrame() {
+        if (skippedFrames < Integer.MAX_VALUE) {
+            skippedFrames++;
+        }
+    }
+
+    /**
+     * Sets the size of the grid the published positions are snapped to;
+     * a change of position within the same grid cell is not published.
+     */
+    public void setPositionGrid(int positionGrid) {
+        this.positionGrid = Math.max(1, positionGrid);
+    }
+
+    /**
+     * @return the current x, as it would be published.
+     */
+    public long getPublishableX() {
+        return quantize(currPosX);
+    }
+
+    /**
+     * @return the current y, as it would be published.
+     */
+    public long getPublishableY() {
+        return quantize(currPosY);
+    }
+
+    public int getInterestCell() {
+        return interestCell;
+    }
+
+    int getInterestSlot() {
+        return interestSlot;
+    }
+
+    void setInterestCell(int cell, int slot) {
+        this.interestCell = cell;
+        this.interestSlot = slot;
     }
 
     @Override
     public void close(World world) {
-        // already synchronized by caller
+        // called by the engine thread of the room
         world.destroyBody(body);
     }
 
@@ -173,27 +318,91 @@ abstract public class AbstractElement implements Element {
     @Override
     public void synchWithWorld() {
         Vec2 position = body.getPosition();
-        this.currPosX = (double) position.x;
-        this.currPosY = (double) position.y;
+        this.currPosX = position.x;
+        this.currPosY = position.y;
+        Vec2 velocity = body.getLinearVelocity();
+        this.currVelX = velocity.x;
+        this.currVelY = velocity.y;
     }
 
     // Protected Methods -------------------------------------------------------
 
     protected boolean posXIsChanged() {
-        return (lastPosX.isNaN() || Math.abs(lastPosX - currPosX) >= EPSILON );
+        if (extrapolation) {
+            return motionIsChanged();
+        }
+        return (lastPosX == NOT_PUBLISHED || lastPosX != getPublishableX());
     }
 
     protected boolean posYIsChanged() {
-        return (lastPosY.isNaN() || Math.abs(lastPosY - currPosY) >= EPSILON );
+        if (extrapolation) {
+            return motionIsChanged();
+        }
+        return (lastPosY == NOT_PUBLISHED || lastPosY != getPublishableY());
+    }
+
+    protected boolean velXIsChanged() {
+        return extrapolation && motionIsChanged();
     }
 
-    protected void applyImpulse(Impulse impulse) {
-        if (impulse.equals(Impulse.NULL)) {
+    protected boolean velYIsChanged() {
+        return extrapolation && motionIsChanged();
+    }
+
+    protected boolean posXIsChanged(int level) {
+        long lastPos = detailPosX[level];
+        return (lastPos == NOT_PUBLISHED || lastPos != getPublishableX(level));
+    }
+
+    protected boolean posYIsChanged(int level) {
+        long lastPos = detailPosY[level];
+        return (lastPos == NOT_PUBLISHED || lastPos != getPublishableY(level));
+    }
+
+    protected void setAsChanged(int fromLevel, int toLevel) {
+        for (int level = fromLevel; level < toLevel; level++) {
+            this.detailPosX[level] = NOT_PUBLISHED;
+            this.detailPosY[level] = NOT_PUBLISHED;
+        }
+    }
+
+    protected void applyImpulse(int intensityX, int intensityY) {
+        if (intensityX == 0 && intensityY == 0) {
             return;
         }
-        body.applyLinearImpulse(new Vec2(impulse.getIntensityX(),
-                impulse.getIntensityY()),
-                body.getWorldCenter());
+        impulseVec.set(intensityX, intensityY);
+        body.applyLinearImpulse(impulseVec, body.getWorldCenter());
+    }
+
+    // Private Methods ---------------------------------------------------------
+
+    /**
+     * In extrapolation mode, position and velocity are published together,
+     * as the client extrapolates from both. As the bodies are damped, a
+     * velocity may fade to zero by changes below velocityThreshold: coming
+     * to rest is a change in itself, or the client would keep extrapolating
+     * the last velocity published.
+     */
+    private boolean motionIsChanged() {
+        if (lastPosX == NOT_PUBLISHED || lastPosY == NOT_PUBLISHED || contactPending || updatePending) {
+            return true;
+        }
+        if (getPublishableVelX() == 0 && getPublishableVelY() == 0 && (lastVelX != 0 || lastVelY != 0)) {
+            return true;
+        }
+        return (lastVelX == NOT_PUBLISHED || Math.abs(getPublishableVelX() - lastVelX) > velocityThreshold
+                || lastVelY == NOT_PUBLISHED || Math.abs(getPublishableVelY() - lastVelY) > velocityThreshold);
+    }
+
+    private long quantize(double position) {
+        return quantize(position, positionGrid);
+    }
+
+    private static long quantize(double position, int grid) {
+        if (grid == 1) {
+            return Math.round(position);
+        }
+        return Math.round(position / grid) * grid;
     }
 
 }
@@ -58,8 +58,6 @@ class BallFactory {
         fixtureDef.friction = 0.3f;
         fixtureDef.restitution = DEFAULT_BALL_RESTITUTION;
         body.createFixture(fixtureDef);
-
-        body.setUserData(Ball.USERDATA_BALL);
         return body;
     }
 }
\ No newline at end of file
@@ -18,15 +18,16 @@
 
 package com.lightstreamer.examples.roomball_demo.adapters;
 
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -35,13 +36,19 @@ import org.jbox2d.dynamics.World;
 
 public class Box2DRoom implements Room {
     private static final int PLAYER_SPEED = 200000;
-    private static final int MAX_NOW_STATS = 1780;
 
     // Member Fields -----------------------------------------------------------
 
+    /**
+     * The id of the room, unique within the RoomRegistry.
+     */
+    private final String id;
+
     /**
      * Map of Player(s) indexed by name.
-     * Is guarded by 'this' and every change must result in a Event to be
+     * Is confined to the engine thread the room is bound to: every change is
+     * submitted through the mailbox and applied by that thread only.
+     * Every change must result in a Event to be
      * published, before an other change can occur. In other words, the order of
      * the Event(s) must be consistent with the order of the changes on 'players'.
      * For example an update followed by a delete of the same Player, must result
@@ -52,18 +59,38 @@ public class Box2DRoom implements Room {
      */
     private final Map<String, Player> players = new HashMap<String, Player>();
 
+    /**
+     * The same Player(s) as in 'players', in an indexed list that the engine
+     * thread can iterate on every step without allocating iterators.
+     */
+    private final ArrayList<Player> playersList = new ArrayList<Player>();
+
+    /**
+     * Number of Player(s) in 'players', readable without locking.
+     */
+    private volatile int playersCount = 0;
+
+    /**
+     * Number of places taken by the players logged in, including those
+     * still to be added by the engine thread; it bounds 'players' without
+     * waiting for the engine thread.
+     */
+    private final AtomicInteger reservedPlayers = new AtomicInteger();
+
     /**
      * The ball used to play
-     * Is guarded by 'this' and every change must result in a Event to be
+     * Is confined to the engine thread and every change must result in a Event to be
      * published, before an other change can occur. In other words, the order of
      * the Event(s) must be consistent with the order of the changes on 'ball'.
      */
     private final Ball ball;
 
+
     /**
-     * The interface used to publish events
+     * The commands submitted to the room, waiting for the engine thread.
+     * Drained at the start of each engine cycle, in submission order.
      */
-    private volatile Publisher publisher;
+    private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<Runnable>();
 
     /**
      * The physical world where the Player(s) and the Ball move.
@@ -76,149 +103,475 @@ public class Box2DRoom implements Room {
     private final RoomEngine engine = new RoomEngine();
 
     /**
-     * The Executor used to publish the Even(s) to the DataAdapter and to the
-     * LS Server
+     * The ring buffer used to hand the Even(s) over to the thread that
+     * publishes them to the DataAdapter and to the LS Server
      */
-    private final Executor publishExecutor;
+    private final EventRingBuffer eventRing;
 
-    private final Logger logger;
+    /**
+     * A private copy of the Event last published on the main channel, for
+     * the cells to copy from; engine thread only.
+     */
+    private final Event cellSourceEvent = new Event();
+
+    /**
+     * The players and the subscribed items holding the room; guarded by the
+     * entry of the room in the RoomRegistry.
+     */
+    int holders = 0;
 
-    private static final int BASE_RATE = 10;
+    /**
+     * The EventComposer(s), reused by the engine thread for every Event.
+     */
+    private final EventComposer addComposer = EventComposer.createAddEventComposer();
+    private final EventComposer deleteComposer = EventComposer.createDeleteEventComposer();
+    private final EventComposer updateComposer = EventComposer.createUpdateEventComposer();
+    private final EventComposer touchComposer = EventComposer.createTouchEventComposer();
+    private final EventComposer cellSnapshotComposer = EventComposer.createFullAddEventComposer(true);
+    private final EventComposer cellAddComposer = EventComposer.createFullAddEventComposer(false);
+    private final EventComposer channelDeleteComposer = EventComposer.createFullDeleteEventComposer();
+
+    /**
+     * The reduced levels of detail: the grid of each level, how many frames
+     * apart it is published, and its DetailEventComposer(s).
+     */
+    private final int[] detailGrids;
+    private final int[] detailFrameDivisors;
+    private final DetailEventComposer[] detailSnapshotComposers;
+    private final DetailEventComposer[] detailAddComposers;
+    private final DetailEventComposer[] detailUpdateComposers;
 
-    private double factorWorld;
+    /**
+     * Whether the item of each level of detail is subscribed.
+     * Is confined to the engine thread.
+     */
+    private final boolean[] subscribedLevels;
+
+    /**
+     * The first channel of the cells, which follow the levels of detail.
+     */
+    private final int firstCellChannel;
+
+    /**
+     * Number of the current frame, increasing for the life of the room.
+     */
+    private long frameCounter = 0;
+
+    /**
+     * Whether every Event carries the number and the timestamp of the frame
+     * it belongs to, and their values for the current frame, shared by all
+     * its Event(s).
+     */
+    private final boolean frameStamps;
+    private String frameTick = "0";
+    private String frameTimestamp = "0";
+
+    /**
+     * The grid indexing the elements by the cell they are in, for the
+     * items listing a single cell; null if cell items are not configured.
+     * Is confined to the engine thread.
+     */
+    private final SpatialGrid interestGrid;
+
+    /**
+     * Whether the item of each cell is subscribed; cells not subscribed
+     * are tracked, but their Event(s) are not composed.
+     * Is confined to the engine thread.
+     */
+    private final boolean[] subscribedCells;
+
+    // Updates deferred because of a full eventRing and updates conflated
+    // by the publisher, as last reported
+    private long reportedDeferredCount = 0;
+    private long reportedConflatedCount = 0;
+    private long lastPublishingReport = 0;
+
+    private final Logger logger;
 
     private int frameRate;
 
     private float timeStep;
 
-    private static final int DEFAULT_STEPS_PER_FRAME = 1;
-    private static final int DEFAULT_FRAME_RATE = 10;
+    /**
+     * Bound of the position grid and of the frame divisor of the levels of
+     * detail; coarser levels would publish nothing anyway.
+     */
+    private static final int MAX_DETAIL_PRODUCT = 1 << 20;
+
+    private static final long OVERRUN_REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final int MAX_COMMANDS_PER_CYCLE = 4096;
     private static final int velocityIterations = 6;
     private static final int positionIterations = 2;
 
-    private int stepsPerFrame = DEFAULT_STEPS_PER_FRAME;
+    /**
+     * Priority gained, in world units of displacement, by a changed element
+     * for each frame it is left unpublished; as the displacement within the
+     * world is bounded, a starved element eventually outranks any other.
+     */
+    private static final long STARVATION_BOOST = 16;
 
-    private int stepCounter = 0;
+    private int stepsPerFrame;
 
-    // Counts ticks from last overall bandwidth post
-    private int ticksCount = 0;
-    // Counts ticks from last statistics flush post
-    private int nowStats = 0;
+    /**
+     * Max number of steps that a single engine cycle may run to catch up with
+     * wall-clock time; any further backlog is dropped and reported as overrun.
+     */
+    private int maxCatchUpSteps;
+
+    private int stepCounter = 0;
 
     /**
-     * scheduled executor used to recurrently publish the bandwidth.
+     * Size of the grid the published positions are snapped to.
      */
-    private final ScheduledExecutorService bandwidthExecutor =
-            Executors.newSingleThreadScheduledExecutor();
+    private final int positionGrid;
 
     /**
-     * Map of PollsBandwidth indexed by item name [itemName = "My_Band_"+userName]
+     * Whether the elements are published in extrapolation mode, and the
+     * change of velocity that triggers an update in that mode.
      */
-    private final ConcurrentHashMap<String, PollsBandwidth> checkBandWidths =
-            new ConcurrentHashMap<String, PollsBandwidth>();
+    private final boolean extrapolation;
+    private final int velocityThreshold;
 
-    private WorldsStatistics stats = null;
+    /**
+     * Max number of updates and of bytes published on each frame, 0 meaning
+     * no limit; the elements that do not fit are published on later frames.
+     */
+    private final int updateBudget;
+    private final int updateBudgetBytes;
 
-    // Constructor -------------------------------------------------------------
+    /**
+     * The changed Player(s) of the current frame, each packed as priority
+     * (high half) and index in playersList (low half), to be sorted by
+     * priority without allocating.
+     */
+    private long[] updateQueue = new long[16];
 
-    static private Box2DRoom instance = null;
+    // Updates skipped because of the budget, as last reported
+    private long budgetSkippedCount = 0;
+    private long reportedBudgetSkippedCount = 0;
 
-    synchronized static public Box2DRoom getInstance(int world_size_x, int world_size_y) {
-        if (instance == null) {
-            instance = new Box2DRoom(new NullPublisher(), new WorldFactory().createWorld(world_size_x, world_size_y));
-        }
-        return instance;
-    }
-    
-    synchronized static public Box2DRoom getInstance() {
-        return instance;
-    }
+    // Constructor -------------------------------------------------------------
 
-    private Box2DRoom(Publisher publisher, World world) {
+    Box2DRoom(String id, RoomConfig config, World world) {
         super();
         logger = LogManager.getLogger(RoomBallAdapter.ROOM_DEMO_LOGGER_NAME);
 
-        this.publisher = publisher;
+        this.id = id;
         this.m_world = world;
         this.ball = new BallFactory().createElement(m_world);
+        this.positionGrid = config.getPositionGrid();
+        this.ball.setPositionGrid(positionGrid);
+        this.extrapolation = config.isExtrapolation();
+        this.velocityThreshold = config.getVelocityThreshold();
+        this.frameStamps = config.isFrameStamps();
+        this.ball.setExtrapolation(extrapolation, velocityThreshold);
+
+        int detailLevels = config.getDetailLevels();
+        detailGrids = new int[detailLevels];
+        detailFrameDivisors = new int[detailLevels];
+        detailSnapshotComposers = new DetailEventComposer[detailLevels];
+        detailAddComposers = new DetailEventComposer[detailLevels];
+        detailUpdateComposers = new DetailEventComposer[detailLevels];
+        subscribedLevels = new boolean[detailLevels];
+        int grid = positionGrid;
+        int divisor = 1;
+        for (int level = 0; level < detailLevels; level++) {
+            // saturated, as the factors compound over the levels
+            grid = (int) Math.min(MAX_DETAIL_PRODUCT, (long) grid * config.getDetailGridFactor());
+            divisor = (int) Math.min(MAX_DETAIL_PRODUCT, (long) divisor * config.getDetailFrameDivisor());
+            detailGrids[level] = grid;
+            detailFrameDivisors[level] = divisor;
+            detailSnapshotComposers[level] = DetailEventComposer.createAddEventComposer(level, true);
+            detailAddComposers[level] = DetailEventComposer.createAddEventComposer(level, false);
+            detailUpdateComposers[level] = DetailEventComposer.createUpdateEventComposer(level);
+        }
+        this.ball.setDetailLevels(detailGrids);
+        firstCellChannel = Event.CHANNEL_MAIN + 1 + detailLevels;
 
-        setFrameRate(DEFAULT_FRAME_RATE);
-
-        publishExecutor = Executors.newSingleThreadExecutor();
+        if (config.getInterestCellSize() > 0) {
+            interestGrid = new SpatialGrid(config.getInterestCellSize(), WorldFactory.bRangeX, WorldFactory.bRangeY);
+            subscribedCells = new boolean[interestGrid.getCellsCount()];
+            interestGrid.add(ball, interestGrid.cellOf(ball.getPublishableX(), ball.getPublishableY()));
+        } else {
+            interestGrid = null;
+            subscribedCells = new boolean[0];
+        }
 
-        stats = new WorldsStatistics(0);
+        setFrameRate(config.getFrameRate());
+        this.stepsPerFrame = config.getStepsPerFrame();
+        this.maxCatchUpSteps = config.getMaxCatchUpSteps();
+        this.updateBudget = config.getUpdateBudget();
+        this.updateBudgetBytes = config.getUpdateBudgetBytes();
 
+        eventRing = new EventRingBuffer(id, config.getRingBufferSize(), config.getRingBufferFullPolicy());
     }
 
     // Nested Class ------------------------------------------------------------
 
-    class RoomEngine implements Runnable {
+    /**
+     * Keeps the world moving on a fixed timestep.
+     * Wall-clock time is accumulated and consumed in slices of exactly one
+     * step, so that the simulated time stays in line with the real time,
+     * regardless of how long each step takes. If the engine falls behind by
+     * more than maxCatchUpSteps, the exceeding steps are dropped (the world
+     * slows down) and the overrun is reported.
+     * The engine is driven by the RoomScheduler, which calls advance() from
+     * the engine thread the room is bound to.
+     */
+    class RoomEngine {
 
         private volatile boolean keepRunning = false;
 
+        /**
+         * Set on start, to let the engine thread restart the clock.
+         */
+        private volatile boolean restart = false;
+
+        private long lastTime;
+        private long accumulator;
+
+        private long overruns = 0;
+        private long droppedSteps = 0;
+        private long lastOverrunReport = 0;
+
         public void start() {
             if (keepRunning) {
                 return;
             }
+            restart = true;
             keepRunning = true;
-            Thread worldThread = new Thread(this);
-            worldThread.start();
         }
 
         public void stop() {
             keepRunning = false;
         }
 
-        @Override
-        public void run () {
+        /**
+         * Runs all the steps due at the given time.
+         *
+         * @param now the current System.nanoTime()
+         * @return the System.nanoTime() at which the next step will be due
+         */
+        private long advance(long now) {
+            long stepNanos = getStepNanos();
+
+            processMailbox();
+
+            if (!keepRunning) {
+                return now + stepNanos;
+            }
+            if (restart) {
+                restart = false;
+                lastTime = now;
+                accumulator = 0;
+            }
+
+            accumulator += now - lastTime;
+            lastTime = now;
 
-            while (keepRunning) {
+            int steps = 0;
+            while (accumulator >= stepNanos && steps < maxCatchUpSteps) {
                 moveWorld();
-                tickStatistics();
-                try {
-                    Thread.sleep(frameRate);
-                } catch (InterruptedException ie) {
-                    // Skip.
-                }
+                accumulator -= stepNanos;
+                steps++;
+            }
+
+            if (accumulator >= stepNanos) {
+                long behind = accumulator / stepNanos;
+                accumulator -= behind * stepNanos;
+                overrun(now, behind);
+            }
+
+            return now + (stepNanos - accumulator);
+        }
+
+        private void overrun(long now, long behind) {
+            overruns++;
+            droppedSteps += behind;
+            if (now - lastOverrunReport >= OVERRUN_REPORT_INTERVAL) {
+                logger.warn("Engine overrun in room '" + id + "': " + overruns + " cycles behind schedule, " + droppedSteps
+                        + " steps dropped (frame rate " + frameRate + " ms, " + playersCount + " players).");
+                lastOverrunReport = now;
+                overruns = 0;
+                droppedSteps = 0;
+            }
+        }
+    }
+
+    class AddPlayerTask implements Runnable {
+
+        private final String name;
+        private final String usrAgent;
+        private final CompletableFuture<KeyState> result = new CompletableFuture<KeyState>();
+
+        public AddPlayerTask(String name, String usrAgent) {
+            this.name = name;
+            this.usrAgent = usrAgent;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.complete(doAddPlayer(name, usrAgent).getKeyState());
+            } catch (RoomException e) {
+                result.completeExceptionally(e);
             }
         }
     }
 
-    class PublishEventTask implements Runnable {
+    class RemovePlayerTask implements Runnable {
+
+        private final String name;
+
+        public RemovePlayerTask(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            doRemovePlayer(name);
+        }
+    }
+
+    class UpdatePlayerMsgTask implements Runnable {
 
-        private final Event event;
+        private final String name;
+        private final String newMsg;
 
-        public PublishEventTask(Event event) {
-            this.event = event;
+        public UpdatePlayerMsgTask(String name, String newMsg) {
+            this.name = name;
+            this.newMsg = newMsg;
         }
 
         @Override
         public void run() {
-            publisher.publish(event);
+            doUpdatePlayerMsg(name, newMsg);
         }
     }
 
-    class PublishEOSTask implements Runnable {
+    class TouchAllElementsTask implements Runnable {
+        @Override
+        public void run() {
+            doTouchAllElements();
+        }
+    }
+
+    class SubscribeLevelTask implements Runnable {
+
+        private final int level;
+        private final boolean subscribed;
+
+        public SubscribeLevelTask(int level, boolean subscribed) {
+            this.level = level;
+            this.subscribed = subscribed;
+        }
+
         @Override
         public void run() {
-            publisher.publishEOS();
+            doSubscribeLevel(level, subscribed);
+        }
+    }
+
+    class SubscribeCellTask implements Runnable {
+
+        private final int cell;
+        private final boolean subscribed;
+
+        public SubscribeCellTask(int cell, boolean subscribed) {
+            this.cell = cell;
+            this.subscribed = subscribed;
+        }
+
+        @Override
+        public void run() {
+            doSubscribeCell(cell, subscribed);
         }
     }
 
     // Public Methods ----------------------------------------------------------
 
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public int getPlayersCount() {
+        return playersCount;
+    }
+
+    @Override
+    public boolean reservePlayer(int maxPlayers) {
+        int reserved;
+        do {
+            reserved = reservedPlayers.get();
+            if (reserved >= maxPlayers) {
+                return false;
+            }
+        } while (!reservedPlayers.compareAndSet(reserved, reserved + 1));
+        return true;
+    }
+
+    @Override
+    public void releasePlayer() {
+        reservedPlayers.decrementAndGet();
+    }
+
+    @Override
     public void setPublisher(Publisher publisher) {
-        this.publisher = publisher;
+        eventRing.setPublisher(publisher);
     }
 
-    public void setFrameRate(int frameRate) {
-        this.frameRate = frameRate;
-        this.factorWorld = this.frameRate / BASE_RATE;
-        this.timeStep = (this.frameRate / 1000f);
+    @Override
+    public int getChannelsCount() {
+        return firstCellChannel + subscribedCells.length;
+    }
+
+    @Override
+    public int getDetailChannel(int level) {
+        if (level < 1 || level > subscribedLevels.length) {
+            return -1;
+        }
+        return detailChannel(level - 1);
     }
 
-    public void setStepsPerFrame(int stepsPerFrame) {
-        this.stepsPerFrame = stepsPerFrame;
+    @Override
+    public int getCellChannel(int cellX, int cellY) {
+        if (interestGrid == null) {
+            return -1;
+        }
+        int cell = interestGrid.getCell(cellX, cellY);
+        if (cell < 0) {
+            return -1;
+        }
+        return cellChannel(cell);
+    }
+
+    @Override
+    public void subscribeChannel(int channel) {
+        if (channel == Event.CHANNEL_MAIN) {
+            touchAllElements();
+        } else if (channel < firstCellChannel) {
+            mailbox.offer(new SubscribeLevelTask(channel - Event.CHANNEL_MAIN - 1, true));
+        } else {
+            mailbox.offer(new SubscribeCellTask(channel - firstCellChannel, true));
+        }
+    }
+
+    @Override
+    public void unsubscribeChannel(int channel) {
+        if (channel == Event.CHANNEL_MAIN) {
+            return;
+        } else if (channel < firstCellChannel) {
+            mailbox.offer(new SubscribeLevelTask(channel - Event.CHANNEL_MAIN - 1, false));
+        } else {
+            mailbox.offer(new SubscribeCellTask(channel - firstCellChannel, false));
+        }
+    }
+
+    private void setFrameRate(int frameRate) {
+        this.frameRate = frameRate;
+        this.timeStep = (this.frameRate / 1000f);
     }
 
     @Override
@@ -231,38 +584,73 @@ public class Box2DRoom implements Room {
         engine.stop();
     }
 
+    /**
+     * Stops the room for good, once removed from the RoomRegistry and from
+     * the RoomScheduler.
+     */
+    void close() {
+        engine.stop();
+        eventRing.close();
+    }
+
+    /**
+     * Runs the steps due at the given time; called by the RoomScheduler,
+     * always from the same thread.
+     *
+     * @return the System.nanoTime() at which the next step will be due
+     */
+    long advance(long now) {
+        long deadline = engine.advance(now);
+        // hand the whole cycle over to the publisher at once
+        eventRing.flush();
+        reportPublishing(now);
+        return deadline;
+    }
+
+    /**
+     * Submits the new player; the returned future completes with the
+     * KeyState of the player once it has been added, or exceptionally with
+     * a RoomException.
+     */
     @Override
-    synchronized public void dispatchCommand(String name, String msg) {
+    public CompletableFuture<KeyState> addPlayer(String name, String usrAgent) {
+        AddPlayerTask task = new AddPlayerTask(name, usrAgent);
+        mailbox.offer(task);
+        return task.result;
+    }
 
-        Player player = players.get(name);
-        if ( player == null ) {
-            logger.warn("'" + name + "' not found!");
-            return;
-        }
+    @Override
+    public void removePlayer(String name) {
+        mailbox.offer(new RemovePlayerTask(name));
+    }
 
-        if ( msg.equals("40") ) {
-            player.addImpulse(0, PLAYER_SPEED);
-        } else if ( msg.equals("38") ) {
-            player.addImpulse(0, -PLAYER_SPEED);
-        } else if ( msg.equals("37") ) {
-            player.addImpulse(-PLAYER_SPEED, 0);
-        } else if ( msg.equals("39") ) {
-            player.addImpulse(PLAYER_SPEED, 0);
-        } else if ( msg.equals("400") ) {
-            player.addImpulse(0, -PLAYER_SPEED);
-        } else if ( msg.equals("380") ) {
-            player.addImpulse(0, PLAYER_SPEED);
-        } else if ( msg.equals("370") ) {
-            player.addImpulse(PLAYER_SPEED, 0);
-        } else if ( msg.equals("390") ) {
-            player.addImpulse(-PLAYER_SPEED, 0);
-        } else {
-            logger.debug("Unknown command received.");
-        }
+    @Override
+    public void touchAllElements() {
+        mailbox.offer(new TouchAllElementsTask());
     }
 
     @Override
-    synchronized public int addPlayer(String name, String usrAgent)
+    public void updatePlayerMsg(String name, String newMsg) {
+        mailbox.offer(new UpdatePlayerMsgTask(name, newMsg));
+    }
+
+    // Private Methods ---------------------------------------------------------
+
+    /**
+     * Applies the submitted commands; executed by the engine thread only.
+     */
+    private void processMailbox() {
+        Runnable command;
+        for (int i = 0; i < MAX_COMMANDS_PER_CYCLE && (command = mailbox.poll()) != null; i++) {
+            try {
+                command.run();
+            } catch (Exception e) {
+                logger.warn("Unexpected error executing command in room '" + id + "'.", e);
+            }
+        }
+    }
+
+    private Player doAddPlayer(String name, String usrAgent)
             throws RoomException {
 
         if (players.containsKey(name)) {
@@ -270,36 +658,52 @@ public class Box2DRoom implements Room {
         }
 
         Player player = new PlayerFactory().createElement(m_world, name, usrAgent);
+        player.setPositionGrid(positionGrid);
+        player.setExtrapolation(extrapolation, velocityThreshold);
+        player.setDetailLevels(detailGrids);
         players.put(player.getName(), player);
+        playersList.add(player);
+        playersCount = players.size();
 
         publishAdd(player);
-        logger.debug("Added player '" + name + "'");
+        for (int level = 0; level < subscribedLevels.length; level++) {
+            if (subscribedLevels[level]) {
+                publishDetail(player, detailAddComposers[level], level);
+            }
+        }
+        logger.debug("Added player '" + name + "' to room '" + id + "'");
 
-        return players.size();
+        return player;
     }
 
-    @Override
-    synchronized public int removePlayer(String name) {
+    private int doRemovePlayer(String name) {
 
         Player player = players.remove(name);
         if (player == null) {
             logger.warn("Unable to remove '" + name + "': not present.");
             return players.size();
         }
+        playersList.remove(player);
+        playersCount = players.size();
 
         player.close(m_world);
         player.setAsChanged();
 
         publishDelete(player);
-        logger.debug("Removed player '"+ name +"'");
+        for (int level = 0; level < subscribedLevels.length; level++) {
+            if (subscribedLevels[level]) {
+                publishToChannel(player, channelDeleteComposer, detailChannel(level));
+            }
+        }
+        logger.debug("Removed player '"+ name +"' from room '" + id + "'");
 
         return players.size();
     }
 
-    @Override
-    synchronized public void touchAllElements() {
+    private void doTouchAllElements() {
 
-        for (Player player  : players.values()) {
+        for (int i = 0; i < playersList.size(); i++) {
+            Player player = playersList.get(i);
             player.setAsChanged();
             publishTouch(player);
         }
@@ -307,11 +711,37 @@ public class Box2DRoom implements Room {
         ball.setAsChanged();
 
         publishTouch(ball);
-        publishEOS();
+        publishEOS(Event.CHANNEL_MAIN);
     }
 
-    @Override
-    synchronized public void updatePlayerMsg(String name, String newMsg) {
+    private void doSubscribeLevel(int level, boolean subscribed) {
+        subscribedLevels[level] = subscribed;
+        if (!subscribed) {
+            return;
+        }
+
+        for (int i = 0; i < playersList.size(); i++) {
+            publishDetail(playersList.get(i), detailSnapshotComposers[level], level);
+        }
+        publishDetail(ball, detailSnapshotComposers[level], level);
+        publishEOS(detailChannel(level));
+    }
+
+    private void doSubscribeCell(int cell, boolean subscribed) {
+        subscribedCells[cell] = subscribed;
+        if (!subscribed) {
+            return;
+        }
+
+        int channel = cellChannel(cell);
+        List<AbstractElement> elements = interestGrid.getElements(cell);
+        for (int i = 0; i < elements.size(); i++) {
+            publishToChannel(elements.get(i), cellSnapshotComposer, channel);
+        }
+        publishEOS(channel);
+    }
+
+    private void doUpdatePlayerMsg(String name, String newMsg) {
 
         Player player = players.get(name);
         if ( player == null ) {
@@ -329,127 +759,338 @@ public class Box2DRoom implements Room {
         publishUpdate(player);
     }
 
-    @Override
-    public void addPollsBandwidth(String sessionID, String itemName, String usr, int jmxPort) {
-
-        PollsBandwidth pollsBandwidth = new PollsBandwidth(sessionID, usr, jmxPort, publisher);
-        checkBandWidths.put(itemName, pollsBandwidth);
-        ScheduledFuture<?> tsk = bandwidthExecutor.scheduleAtFixedRate(pollsBandwidth,10,2000,TimeUnit.MILLISECONDS);
-        pollsBandwidth.setTask(tsk);
-    }
-
-    @Override
-    public void killBandChecker(String itemName) {
-        PollsBandwidth p = checkBandWidths.remove(itemName);
-        if ( p != null ) {
-            p.getTask().cancel(true);
-        }
+    private long getStepNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(frameRate);
     }
 
-    // Private Methods ---------------------------------------------------------
-
     private void moveWorld() {
         step();
 
         if (++stepCounter >= stepsPerFrame) {
+            beginFrame();
             sendUpdates();
+            expireInputs();
+            sendDetailUpdates();
             stepCounter = 0;
         }
     }
 
-    synchronized private void step() {
-
-        for (Player player : players.values()) {
-            player.applyImpulse();
+    /**
+     * Runs one physics step; engine thread only. Package visible for the
+     * allocation test, as a steady-state step is meant to allocate nothing.
+     */
+    void step() {
+
+        long pickedUpAt = 0;
+        for (int i = 0; i < playersList.size(); i++) {
+            Player player = playersList.get(i);
+            KeyState keyState = player.getKeyState();
+            long receivedAt = keyState.takeInput();
+            if (receivedAt != 0) {
+                if (pickedUpAt == 0) {
+                    pickedUpAt = System.nanoTime();
+                }
+                InputLatency.PICKUP.record(pickedUpAt - keyState.getTakenDeliveredAt());
+                player.trackInput(receivedAt, pickedUpAt);
+            }
+            player.applyImpulse(PLAYER_SPEED);
         }
 
         m_world.step(timeStep, velocityIterations, positionIterations);
 
-        for (Player player : players.values()) {
+        long steppedAt = 0;
+        for (int i = 0; i < playersList.size(); i++) {
+            Player player = playersList.get(i);
             player.synchWithWorld();
+            if (player.isInputStepPending()) {
+                if (steppedAt == 0) {
+                    steppedAt = System.nanoTime();
+                }
+                InputLatency.STEP.record(steppedAt - player.getInputAppliedAt());
+                player.setInputSteppedAt(steppedAt);
+            }
         }
 
         ball.synchWithWorld();
     }
 
-    private void publishAdd(Element element) {
-        publish(element, EventComposer.createAddEventComposer());
+    private void publishAdd(AbstractElement element) {
+        publish(element, addComposer);
     }
 
-    private void publishDelete(Element element) {
-        publish(element, EventComposer.createDeleteEventComposer());
+    private void publishDelete(AbstractElement element) {
+        publish(element, deleteComposer);
     }
 
-    private void publishUpdate(Element element) {
-        publish(element, EventComposer.createUpdateEventComposer());
+    private int publishUpdate(AbstractElement element) {
+        if (interestGrid != null && element.isExtrapolated()
+                && element.getInterestCell() != interestGrid.cellOf(element.getPublishableX(), element.getPublishableY())) {
+            // in extrapolation mode the position alone does not make the
+            // element changed, but the items of the cells have to follow it
+            element.requestUpdate();
+        }
+        return publish(element, updateComposer);
     }
 
-    private void publishTouch(Element element) {
-        publish(element, EventComposer.createTouchEventComposer());
+    private void publishTouch(AbstractElement element) {
+        publish(element, touchComposer);
     }
 
-    private void publish(Element element, EventComposer eventCreator) {
+    /**
+     * @return the estimated size of the Event published, or -1 if none.
+     */
+    private int publish(AbstractElement element, EventComposer eventCreator) {
         if (!element.isChanged()) {
+            return -1;
+        }
+        Event event = eventRing.claim(eventCreator.isDeferrable());
+        if (event == null) {
+            // ring full: the element is still marked as changed, hence it
+            // will be published on a later frame
+            return -1;
+        }
+        eventCreator.compose(element, event);
+        stamp(event);
+        // read before publishing: once published, the Event belongs to the
+        // publisher thread; note that claiming a slot on a full ring
+        // publishes the slots claimed so far as well
+        int payloadSize = event.getPayloadSize();
+        if (interestGrid != null) {
+            cellSourceEvent.copyFrom(event, Event.CHANNEL_MAIN);
+        }
+        eventRing.publish();
+        if (interestGrid != null) {
+            publishToCells(element, cellSourceEvent);
+        }
+        return payloadSize;
+    }
+
+    /**
+     * Keeps the interestGrid in line with the given Event on the main
+     * channel and forwards the Event to the items of the cells involved:
+     * an element moving to another cell is deleted from the old cell and
+     * added to the new one, with all its fields.
+     * Cells get real-time events only, even for a snapshot of the main
+     * channel: each cell sends its own snapshot, before its end of snapshot,
+     * when subscribed.
+     */
+    private void publishToCells(AbstractElement element, Event mainEvent) {
+        int oldCell = element.getInterestCell();
+
+        if (EventComposer.CMD_DELETE.equals(mainEvent.getCommand())) {
+            interestGrid.remove(element);
+            if (oldCell >= 0 && subscribedCells[oldCell]) {
+                eventRing.claim(false).copyFrom(mainEvent, cellChannel(oldCell));
+            }
             return;
         }
-        element.accept(eventCreator);
-        final Event event = eventCreator.getEvent();
 
-        publishExecutor.execute(new PublishEventTask(event));
+        int newCell = interestGrid.cellOf(element.getPublishableX(), element.getPublishableY());
+        if (newCell == oldCell) {
+            if (subscribedCells[newCell]) {
+                eventRing.claim(false).copyFrom(mainEvent, cellChannel(newCell));
+            }
+            return;
+        }
+
+        if (oldCell >= 0) {
+            if (subscribedCells[oldCell]) {
+                publishToChannel(element, channelDeleteComposer, cellChannel(oldCell));
+            }
+            interestGrid.move(element, newCell);
+        } else {
+            interestGrid.add(element, newCell);
+        }
+        if (subscribedCells[newCell]) {
+            publishToChannel(element, cellAddComposer, cellChannel(newCell));
+        }
     }
 
-    private void publishEOS() {
-        publishExecutor.execute(new PublishEOSTask());
+    /**
+     * Publishes the element on the given channel; the composer is expected
+     * not to affect the changes tracked for the main channel.
+     */
+    private void publishToChannel(AbstractElement element, EventComposer eventCreator, int channel) {
+        Event event = eventRing.claim(false);
+        eventCreator.compose(element, event);
+        event.setChannel(channel);
+        stamp(event);
+        eventRing.publish();
     }
 
-    synchronized private void sendUpdates() {
+    /**
+     * Publishes the element at the given level of detail; updates are
+     * deferrable, hence they may be given up when the ring is full, in which
+     * case the element stays changed for that level.
+     */
+    private void publishDetail(AbstractElement element, DetailEventComposer eventCreator, int level) {
+        boolean isUpdate = (eventCreator == detailUpdateComposers[level]);
+        if (isUpdate && !element.isChanged(level)) {
+            return;
+        }
+        Event event = eventRing.claim(isUpdate);
+        if (event == null) {
+            return;
+        }
+        eventCreator.compose(element, event, detailChannel(level));
+        stamp(event);
+        eventRing.publish();
+    }
 
-        for (Player player : players.values()) {
-            publishUpdate(player);
+    /**
+     * Adds the number and the timestamp of the current frame to the Event,
+     * if configured; a client can then tell the frames apart, measure the
+     * delay of each update and detect the frames conflated or skipped.
+     */
+    private void stamp(Event event) {
+        if (!frameStamps) {
+            return;
         }
+        event.setFrame(frameTick, frameTimestamp);
+    }
 
-        publishUpdate(ball);
+    private void publishEOS(int channel) {
+        Event event = eventRing.claim(false);
+        event.setEndOfSnapshot(channel);
+        eventRing.publish();
     }
 
-    private void tickStatistics() {
-        try {
-            // Post overall bandwidth utilization.
-            if ( ticksCount++ > ((2000/frameRate)* factorWorld) ) {
-                storeOverallBandwidthStatistics();
-                ticksCount = 0;
-                if ( nowStats++ > MAX_NOW_STATS ) {
-                    flushStatistics();
-                    nowStats = 0;
-                }
+    private int detailChannel(int level) {
+        return Event.CHANNEL_MAIN + 1 + level;
+    }
+
+    private int cellChannel(int cell) {
+        return firstCellChannel + cell;
+    }
+
+    private void reportPublishing(long now) {
+        if (now - lastPublishingReport < OVERRUN_REPORT_INTERVAL) {
+            return;
+        }
+        long deferredCount = eventRing.getDeferredCount();
+        if (deferredCount != reportedDeferredCount) {
+            logger.warn("Publishing is lagging behind in room '" + id + "': " + (deferredCount - reportedDeferredCount)
+                    + " updates deferred to later frames.");
+            reportedDeferredCount = deferredCount;
+        }
+        if (budgetSkippedCount != reportedBudgetSkippedCount) {
+            logger.debug("Publishing in room '" + id + "': " + (budgetSkippedCount - reportedBudgetSkippedCount)
+                    + " updates postponed by the update budget.");
+            reportedBudgetSkippedCount = budgetSkippedCount;
+        }
+        long conflatedCount = eventRing.getConflatedCount();
+        if (conflatedCount != reportedConflatedCount) {
+            logger.debug("Publishing in room '" + id + "': " + (conflatedCount - reportedConflatedCount)
+                    + " updates conflated, " + conflatedCount + " overall.");
+            reportedConflatedCount = conflatedCount;
+        }
+        lastPublishingReport = now;
+    }
+
+    private void sendUpdates() {
+
+        if (updateBudget == 0 && updateBudgetBytes == 0) {
+            for (int i = 0; i < playersList.size(); i++) {
+                Player player = playersList.get(i);
+                publishUpdate(player);
             }
-        } catch (Exception e) {
-            logger.warn("Unexpected error in send overall Bandwidth information.", e);
+
+            publishUpdate(ball);
+            return;
         }
+
+        sendBudgetedUpdates();
     }
 
-    private void storeOverallBandwidthStatistics() {
-        double totBandwidth = getTotalBandwidthOut();
+    /**
+     * Publishes the changed elements within the update budget: the ball
+     * first, then the Player(s) by decreasing priority, where the priority
+     * is the displacement since the last publish, raised by the frames the
+     * Player has been left behind.
+     */
+    private void sendBudgetedUpdates() {
+        int updates = 0;
+        int bytes = 0;
+
+        int payloadSize = publishUpdate(ball);
+        if (payloadSize >= 0) {
+            updates++;
+            bytes += payloadSize;
+        }
 
-        // update statistics.
-        stats.feedBandwidth(totBandwidth);
-        return ;
+        int candidates = 0;
+        for (int i = 0; i < playersList.size(); i++) {
+            Player player = playersList.get(i);
+            if (!player.isChanged()) {
+                continue;
+            }
+            if (candidates == updateQueue.length) {
+                updateQueue = Arrays.copyOf(updateQueue, candidates * 2);
+            }
+            updateQueue[candidates++] = (getPriority(player) << 32) | i;
+        }
+        Arrays.sort(updateQueue, 0, candidates);
+
+        for (int k = candidates - 1; k >= 0; k--) {
+            Player player = playersList.get((int) updateQueue[k]);
+            if ((updateBudget == 0 || updates < updateBudget)
+                    && (updateBudgetBytes == 0 || bytes < updateBudgetBytes)
+                    && (payloadSize = publishUpdate(player)) >= 0) {
+                updates++;
+                bytes += payloadSize;
+            } else {
+                player.skipFrame();
+                budgetSkippedCount++;
+            }
+        }
+    }
+
+    /**
+     * Drops the input tracked for the Player(s) not published in the frame
+     * following the step of the input, as a command may produce no update
+     * at all (e.g. a push against a wall); otherwise it would stay pending
+     * and be accounted to some unrelated later update.
+     */
+    private void expireInputs() {
+        for (int i = 0; i < playersList.size(); i++) {
+            Player player = playersList.get(i);
+            if (player.getInputSteppedAt() != 0) {
+                player.clearInput();
+            }
+        }
     }
 
-    private double getTotalBandwidthOut() {
-        double sum = 0.0;
-        Enumeration<PollsBandwidth> e = checkBandWidths.elements();
-        PollsBandwidth p;
-        while ( e.hasMoreElements() ) {
-            p = e.nextElement();
-            sum += p.getBandwidth();
+    private void beginFrame() {
+        frameCounter++;
+        if (frameStamps) {
+            frameTick = Long.toString(frameCounter);
+            frameTimestamp = Long.toString(System.currentTimeMillis());
         }
+    }
 
-        return sum;
+    /**
+     * Publishes the changes at each subscribed level of detail, on the
+     * frames due for that level.
+     */
+    private void sendDetailUpdates() {
+        for (int level = 0; level < subscribedLevels.length; level++) {
+            if (!subscribedLevels[level] || frameCounter % detailFrameDivisors[level] != 0) {
+                continue;
+            }
+            DetailEventComposer eventCreator = detailUpdateComposers[level];
+            publishDetail(ball, eventCreator, level);
+            for (int i = 0; i < playersList.size(); i++) {
+                publishDetail(playersList.get(i), eventCreator, level);
+            }
+        }
     }
 
-    private void flushStatistics() {
-        logger.debug(stats);
-        stats.reset();
+    private static long getPriority(AbstractElement element) {
+        long priority = element.getPendingDisplacement() + element.getSkippedFrames() * STARVATION_BOOST;
+        if (priority < 0 || priority > Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        return priority;
     }
 
 }
@@ -0,0 +1,64 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+/**
+ * Precomputed String representations of the integer coordinates, so that
+ * position fields can be produced without formatting or allocation.
+ * The table covers the world, as sized by WorldFactory, plus a margin for
+ * the elements pushed beyond the borders; any other value is formatted
+ * on the fly.
+ */
+class CoordinateStrings {
+
+    /**
+     * How far outside the world the table goes; twice the border thickness.
+     */
+    private static final int MARGIN = 2 * WorldFactory.BORDER_THICKNESS;
+
+    /**
+     * Lazily built on the first use, that is when the world size is known.
+     */
+    private static class Holder {
+
+        static final String[] TABLE;
+        static final int MIN;
+
+        static {
+            MIN = -MARGIN;
+            int max = Math.max(WorldFactory.bRangeX, WorldFactory.bRangeY) + MARGIN;
+            TABLE = new String[max - MIN + 1];
+            for (int i = 0; i < TABLE.length; i++) {
+                TABLE[i] = Integer.toString(MIN + i);
+            }
+        }
+    }
+
+    private CoordinateStrings() {
+    }
+
+    public static String toString(long coordinate) {
+        long index = coordinate - Holder.MIN;
+        if (index >= 0 && index < Holder.TABLE.length) {
+            return Holder.TABLE[(int) index];
+        }
+        return Long.toString(coordinate);
+    }
+
+}
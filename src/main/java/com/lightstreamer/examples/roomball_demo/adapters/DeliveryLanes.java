@@ -0,0 +1,115 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A set of single-thread lanes delivering the messages of the sessions.
+ * Each session is bound to a lane by the hash of its id, hence the messages
+ * of a session are delivered in order, while different sessions proceed in
+ * parallel on different lanes.
+ */
+class DeliveryLanes {
+
+    /**
+     * Queue depth above which a lane is reported as lagging behind.
+     */
+    private static final int LAGGING_DEPTH = 1000;
+
+    private static final long LAGGING_REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    // Member Fields -----------------------------------------------------------
+
+    private final ThreadPoolExecutor[] lanes;
+
+    private volatile long lastLaggingReport = 0;
+
+    private final Logger logger;
+
+    // Constructor -------------------------------------------------------------
+
+    DeliveryLanes(int count) {
+        logger = LogManager.getLogger(RoomBallAdapter.ROOM_DEMO_LOGGER_NAME);
+
+        lanes = new ThreadPoolExecutor[Math.max(1, count)];
+        for (int i = 0; i < lanes.length; i++) {
+            final String threadName = "RoomBall delivery-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), runnable -> new Thread(runnable, threadName));
+        }
+    }
+
+    // Public Methods ----------------------------------------------------------
+
+    /**
+     * Delivers the task on the lane of the session, after the tasks of the
+     * same session already submitted.
+     */
+    public void execute(String sessionID, Runnable task) {
+        int lane = getLane(sessionID);
+        lanes[lane].execute(task);
+
+        if (lanes[lane].getQueue().size() > LAGGING_DEPTH) {
+            long now = System.nanoTime();
+            if (now - lastLaggingReport >= LAGGING_REPORT_INTERVAL) {
+                lastLaggingReport = now;
+                logger.warn("Message delivery is lagging behind: " + this);
+            }
+        }
+    }
+
+    public int getLanesCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @return the lane the session is bound to.
+     */
+    public int getLane(String sessionID) {
+        int h = sessionID.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % lanes.length;
+    }
+
+    /**
+     * @return the number of tasks waiting on the given lane.
+     */
+    public int getQueueDepth(int lane) {
+        return lanes[lane].getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder depths = new StringBuilder("queue depth per lane [");
+        for (int i = 0; i < lanes.length; i++) {
+            if (i > 0) {
+                depths.append(", ");
+            }
+            depths.append(getQueueDepth(i));
+        }
+        return depths.append("]").toString();
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+/**
+ * Visit an Element and compose the corresponding Event for a level of
+ * detail, with the positions snapped to the grid of that level and the
+ * changes tracked for that level only.
+ */
+public class DetailEventComposer implements ElementVisitor {
+
+    // Member Fields -----------------------------------------------------------
+
+    private final int level;
+    private final String command;
+    private final boolean isSnapshot;
+
+    /**
+     * Whether all the fields are composed, regardless of the changes.
+     */
+    private final boolean isFull;
+
+    private Event event = null;
+
+    // Constructor and Creation Methods ----------------------------------------
+
+    private DetailEventComposer(int level, String command, boolean isSnapshot, boolean isFull) {
+        this.level = level;
+        this.command = command;
+        this.isSnapshot = isSnapshot;
+        this.isFull = isFull;
+    }
+
+    public static DetailEventComposer createAddEventComposer(int level, boolean isSnapshot) {
+        return new DetailEventComposer(level, EventComposer.CMD_ADD, isSnapshot, true);
+    }
+
+    public static DetailEventComposer createUpdateEventComposer(int level) {
+        return new DetailEventComposer(level, EventComposer.CMD_UPDATE, false, false);
+    }
+
+    // Public Methods ----------------------------------------------------------
+
+    /**
+     * Composes the Event corresponding to the element into the given Event,
+     * addressed to the given channel.
+     */
+    public void compose(Element element, Event target, int channel) {
+        this.event = target;
+        element.accept(this);
+        target.setChannel(channel);
+    }
+
+    @Override
+    public void visit(Player player) {
+
+        ItemEventMap itemEvent = event.reset(isSnapshot);
+
+        itemEvent.put(Event.FIELD_KEY, player.getName());
+        itemEvent.put(Event.FIELD_COMMAND, command);
+        if (isFull || player.posYIsChanged(level)) {
+            itemEvent.put(Event.FIELD_POS_Y, CoordinateStrings.toString(player.getPublishableY(level)));
+        }
+        if (isFull || player.posXIsChanged(level)) {
+            itemEvent.put(Event.FIELD_POS_X, CoordinateStrings.toString(player.getPublishableX(level)));
+        }
+        if (isFull || player.lastMsgIsChanged(level)) {
+            itemEvent.put(Event.FIELD_MSG, player.getLastMsg());
+        }
+        if (isFull) {
+            itemEvent.put(Event.FIELD_USR_AGNT, player.getUsrAgent());
+        }
+
+        player.setAsNotChanged(level);
+    }
+
+    @Override
+    public void visit(Ball ball) {
+
+        ItemEventMap itemEvent = event.reset(isSnapshot);
+
+        itemEvent.put(Event.FIELD_KEY, ball.getName());
+        itemEvent.put(Event.FIELD_COMMAND, command);
+        if (isFull || ball.posYIsChanged(level)) {
+            itemEvent.put(Event.FIELD_POS_Y, CoordinateStrings.toString(ball.getPublishableY(level)));
+        }
+        if (isFull || ball.posXIsChanged(level)) {
+            itemEvent.put(Event.FIELD_POS_X, CoordinateStrings.toString(ball.getPublishableX(level)));
+        }
+
+        ball.setAsNotChanged(level);
+    }
+
+}
@@ -28,14 +28,156 @@ public class Event {
     public static final String FIELD_POS_X = "posX";
     public static final String FIELD_USR_AGNT = "usrAgnt";
     public static final String FIELD_MSG = "msg";
+    public static final String FIELD_VEL_X = "velX";
+    public static final String FIELD_VEL_Y = "velY";
+    public static final String FIELD_TICK = "tick";
+    public static final String FIELD_TIMESTAMP = "ts";
 
-    private final Map<String, String> itemEvent;
-    private final boolean isSnapshot;
+    /**
+     * The channel of the item listing all the elements of the room; the
+     * cells of the interest grid use the channels following this one.
+     */
+    public static final int CHANNEL_MAIN = 0;
 
-    public Event(Map<String, String> itemEvent, boolean isSnapshot) {
+    /**
+     * The fields of the Event; allocated once and refilled every time the
+     * Event is reused.
+     */
+    private final ItemEventMap itemEvent = new ItemEventMap();
+    private boolean isSnapshot;
+
+    /**
+     * Marks an end-of-snapshot notification instead of an item event.
+     */
+    private boolean isEndOfSnapshot;
+
+    /**
+     * Marks an Event whose values have been merged into an older one, hence
+     * it must not be published.
+     */
+    private boolean isConflated;
+
+    /**
+     * The item the Event is addressed to, among those of the room.
+     */
+    private int channel = CHANNEL_MAIN;
+
+    /**
+     * The System.nanoTime() of the arrival of the command the Event results
+     * from, and of the step that applied it; 0 if not tracked.
+     */
+    private long inputReceivedAt = 0;
+    private long inputSteppedAt = 0;
+
+    /**
+     * Creates an empty Event, to be filled through reset(..); used for the
+     * slots of the EventRingBuffer.
+     */
+    public Event() {
         super();
-        this.itemEvent = itemEvent;
+    }
+
+    /**
+     * Prepares the Event to carry a new item event.
+     *
+     * @return the cleared field map, to be filled by the caller.
+     */
+    public ItemEventMap reset(boolean isSnapshot) {
+        this.itemEvent.clear();
         this.isSnapshot = isSnapshot;
+        this.isEndOfSnapshot = false;
+        this.isConflated = false;
+        this.channel = CHANNEL_MAIN;
+        this.inputReceivedAt = 0;
+        this.inputSteppedAt = 0;
+        return itemEvent;
+    }
+
+    public void setEndOfSnapshot(int channel) {
+        this.itemEvent.clear();
+        this.isSnapshot = false;
+        this.isEndOfSnapshot = true;
+        this.isConflated = false;
+        this.channel = channel;
+        this.inputReceivedAt = 0;
+        this.inputSteppedAt = 0;
+    }
+
+    /**
+     * Makes this Event a copy of the given one, addressed to another channel.
+     * The copy is always a real-time event, as the other channel sends its
+     * own snapshot when subscribed.
+     */
+    public void copyFrom(Event source, int channel) {
+        this.itemEvent.clear();
+        this.itemEvent.putAll(source.itemEvent);
+        this.isSnapshot = false;
+        this.isEndOfSnapshot = source.isEndOfSnapshot;
+        this.isConflated = false;
+        this.channel = channel;
+        // the latency is tracked on the main channel only
+        this.inputReceivedAt = 0;
+        this.inputSteppedAt = 0;
+    }
+
+    /**
+     * Adds the number and the timestamp of the frame to the fields.
+     */
+    public void setFrame(String tick, String timestamp) {
+        itemEvent.put(FIELD_TICK, tick);
+        itemEvent.put(FIELD_TIMESTAMP, timestamp);
+    }
+
+    public void setChannel(int channel) {
+        this.channel = channel;
+    }
+
+    public void clear() {
+        this.itemEvent.clear();
+        this.isSnapshot = false;
+        this.isEndOfSnapshot = false;
+        this.isConflated = false;
+        this.channel = CHANNEL_MAIN;
+        this.inputReceivedAt = 0;
+        this.inputSteppedAt = 0;
+    }
+
+    public void setConflated() {
+        this.isConflated = true;
+    }
+
+    /**
+     * Brings the values of a newer Event for the same key into this one.
+     */
+    public void merge(Event newer) {
+        itemEvent.putAll(newer.itemEvent);
+        if (inputReceivedAt == 0) {
+            inputReceivedAt = newer.inputReceivedAt;
+            inputSteppedAt = newer.inputSteppedAt;
+        }
+    }
+
+    /**
+     * Tracks the latency of the command the Event results from.
+     */
+    public void setInput(long receivedAt, long steppedAt) {
+        this.inputReceivedAt = receivedAt;
+        this.inputSteppedAt = steppedAt;
+    }
+
+    public long getInputReceivedAt() {
+        return inputReceivedAt;
+    }
+
+    public long getInputSteppedAt() {
+        return inputSteppedAt;
+    }
+
+    /**
+     * @return an estimate of the bytes the Event takes on the wire.
+     */
+    public int getPayloadSize() {
+        return itemEvent.getPayloadSize();
     }
 
     public Map<String, String> getItemEvent() {
@@ -46,6 +188,26 @@ public class Event {
         return isSnapshot;
     }
 
+    public boolean isEndOfSnapshot() {
+        return isEndOfSnapshot;
+    }
+
+    public boolean isConflated() {
+        return isConflated;
+    }
+
+    public int getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return whether the Event is a plain UPDATE, which can be merged with
+     * the other updates of the same key.
+     */
+    public boolean isConflatable() {
+        return !isSnapshot && !isEndOfSnapshot && EventComposer.CMD_UPDATE.equals(getCommand());
+    }
+
     public String getCommand() {
         return itemEvent.get(FIELD_COMMAND);
     }
@@ -18,30 +18,45 @@
 
 package com.lightstreamer.examples.roomball_demo.adapters;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Visit an Element and compose the corresponding Event
  */
 public class EventComposer implements ElementVisitor {
 
-    private static final String CMD_ADD = "ADD";
-    private static final String CMD_UPDATE = "UPDATE";
-    private static final String CMD_DELETE = "DELETE";
+    static final String CMD_ADD = "ADD";
+    static final String CMD_UPDATE = "UPDATE";
+    static final String CMD_DELETE = "DELETE";
 
     // Member Fields -----------------------------------------------------------
 
     private final String command;
     private final boolean isSnapshot;
 
+    /**
+     * Whether all the fields are composed, regardless of the changes, and
+     * the element is left as it is; used to list an element on a further
+     * item, without affecting what is published on the others.
+     */
+    private final boolean isFull;
+
+    /**
+     * Whether the fields of the element are composed at all.
+     */
+    private final boolean withFields;
+
     private Event event = null;
 
     // Constructor and Creation Methods ----------------------------------------
 
     private EventComposer(String command, boolean isSnapshot) {
+        this(command, isSnapshot, false);
+    }
+
+    private EventComposer(String command, boolean isSnapshot, boolean isFull) {
         this.command = command;
         this.isSnapshot = isSnapshot;
+        this.isFull = isFull;
+        this.withFields = !(isFull && command.equals(CMD_DELETE));
     }
 
 
@@ -60,54 +75,102 @@ public class EventComposer implements ElementVisitor {
         return new EventComposer(CMD_ADD, true);
     }
 
+    public static EventComposer createFullAddEventComposer(boolean isSnapshot) {
+        return new EventComposer(CMD_ADD, isSnapshot, true);
+    }
+
+    public static EventComposer createFullDeleteEventComposer() {
+        return new EventComposer(CMD_DELETE, false, true);
+    }
+
     // Public Methods ----------------------------------------------------------
 
+    /**
+     * Composes the Event corresponding to the element into the given Event.
+     */
+    public void compose(Element element, Event target) {
+        this.event = target;
+        element.accept(this);
+    }
+
+    /**
+     * @return whether the composed Event(s) may be postponed to a later
+     * frame, as they just bring the element up to date.
+     */
+    public boolean isDeferrable() {
+        return command.equals(CMD_UPDATE) && !isSnapshot;
+    }
+
     @Override
     public void visit(Player player) {
 
-        Map<String, String> itemEvent = new HashMap<String, String>();
+        ItemEventMap itemEvent = event.reset(isSnapshot);
 
         itemEvent.put(Event.FIELD_KEY, player.getName());
         itemEvent.put(Event.FIELD_COMMAND, command);
-        if (player.posYIsChanged()) {
-            itemEvent.put(Event.FIELD_POS_Y, ""+Math.round(player.getY()));
+        if (mustPut(player.posYIsChanged())) {
+            itemEvent.put(Event.FIELD_POS_Y, CoordinateStrings.toString(player.getPublishableY()));
         }
-        if (player.posXIsChanged()) {
-            itemEvent.put(Event.FIELD_POS_X, ""+Math.round(player.getX()));
+        if (mustPut(player.posXIsChanged())) {
+            itemEvent.put(Event.FIELD_POS_X, CoordinateStrings.toString(player.getPublishableX()));
         }
-        if (player.lastMsgIsChanged()) {
+        if (mustPut(player.lastMsgIsChanged())) {
             itemEvent.put(Event.FIELD_MSG, player.getLastMsg());
         }
-        if (player.usrAgentIsChanged()) {
+        if (mustPut(player.usrAgentIsChanged())) {
             itemEvent.put(Event.FIELD_USR_AGNT, player.getUsrAgent());
         }
-
-        event = new Event(itemEvent, isSnapshot);
-
-        player.setAsNotChanged();
+        putVelocity(player, itemEvent);
+
+        if (!isFull) {
+            player.setAsNotChanged();
+            if (player.getInputSteppedAt() != 0) {
+                event.setInput(player.getInputReceivedAt(), player.getInputSteppedAt());
+                player.clearInput();
+            }
+        }
     }
 
     @Override
     public void visit(Ball ball) {
 
-        Map<String, String> itemEvent = new HashMap<String, String>();
+        ItemEventMap itemEvent = event.reset(isSnapshot);
 
         itemEvent.put(Event.FIELD_KEY, ball.getName());
         itemEvent.put(Event.FIELD_COMMAND, command);
-        if (ball.posYIsChanged()) {
-            itemEvent.put(Event.FIELD_POS_Y, ""+Math.round(ball.getY()));
+        if (mustPut(ball.posYIsChanged())) {
+            itemEvent.put(Event.FIELD_POS_Y, CoordinateStrings.toString(ball.getPublishableY()));
         }
-        if (ball.posXIsChanged()) {
-            itemEvent.put(Event.FIELD_POS_X, ""+Math.round(ball.getX()));
+        if (mustPut(ball.posXIsChanged())) {
+            itemEvent.put(Event.FIELD_POS_X, CoordinateStrings.toString(ball.getPublishableX()));
         }
+        putVelocity(ball, itemEvent);
 
-        event = new Event(itemEvent, isSnapshot);
-
-        ball.setAsNotChanged();
+        if (!isFull) {
+            ball.setAsNotChanged();
+        }
     }
 
     public Event getEvent() {
         return this.event;
     }
 
+    // Private Methods ---------------------------------------------------------
+
+    private boolean mustPut(boolean isChanged) {
+        return withFields && (isFull || isChanged);
+    }
+
+    private void putVelocity(AbstractElement element, ItemEventMap itemEvent) {
+        if (!element.isExtrapolated()) {
+            return;
+        }
+        if (mustPut(element.velYIsChanged())) {
+            itemEvent.put(Event.FIELD_VEL_Y, Long.toString(element.getPublishableVelY()));
+        }
+        if (mustPut(element.velXIsChanged())) {
+            itemEvent.put(Event.FIELD_VEL_X, Long.toString(element.getPublishableVelX()));
+        }
+    }
+
 }
@@ -0,0 +1,130 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+/**
+ * Merges the pending UPDATE Event(s) of the same element, so that only the
+ * latest field values are published.
+ * Works on a batch of slots of the EventRingBuffer, on the consumer side:
+ * every UPDATE is merged into the oldest pending UPDATE for the same key,
+ * which then carries the newest values; ADD and DELETE Event(s) are never
+ * merged and act as barriers for their key, while end-of-snapshot
+ * notifications act as barriers for all keys, so that the ordering required
+ * by the COMMAND mode is preserved.
+ * Keys are tracked separately for each channel, as the same element may be
+ * listed by more than one item.
+ * Keys are indexed through a preallocated open-addressing table, so
+ * conflating allocates nothing.
+ */
+class EventConflater {
+
+    /**
+     * Marks a key whose last Event was a barrier.
+     */
+    private static final int NO_PENDING = -1;
+
+    private final String[] keys;
+    private final int[] channels;
+    private final int[] pendingSlots;
+    private final int mask;
+
+    /**
+     * Positions in use in the table, to reset them after each batch.
+     */
+    private final int[] used;
+    private int usedCount = 0;
+
+    /**
+     * @param maxBatchSize the max number of Event(s) in a batch
+     */
+    EventConflater(int maxBatchSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, maxBatchSize) - 1) << 2;
+        keys = new String[capacity];
+        channels = new int[capacity];
+        pendingSlots = new int[capacity];
+        used = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Conflates the slots in the given range, marking the Event(s) merged
+     * into older ones as conflated.
+     *
+     * @return the number of Event(s) conflated.
+     */
+    public int conflate(Event[] slots, int slotMask, long from, long to) {
+        int conflated = 0;
+
+        for (long sequence = from; sequence <= to; sequence++) {
+            int slot = (int) (sequence & slotMask);
+            Event event = slots[slot];
+
+            if (event.isEndOfSnapshot()) {
+                reset();
+                continue;
+            }
+
+            String key = event.getKey();
+            if (key == null) {
+                continue;
+            }
+
+            int channel = event.getChannel();
+            int pos = indexOf(key, channel);
+            if (keys[pos] == null) {
+                keys[pos] = key;
+                channels[pos] = channel;
+                pendingSlots[pos] = NO_PENDING;
+                used[usedCount++] = pos;
+            }
+
+            if (!event.isConflatable()) {
+                pendingSlots[pos] = NO_PENDING;
+            } else if (pendingSlots[pos] == NO_PENDING) {
+                pendingSlots[pos] = slot;
+            } else {
+                slots[pendingSlots[pos]].merge(event);
+                event.setConflated();
+                conflated++;
+            }
+        }
+
+        reset();
+        return conflated;
+    }
+
+    // Private Methods ---------------------------------------------------------
+
+    private int indexOf(String key, int channel) {
+        int h = key.hashCode() * 31 + channel;
+        int pos = (h ^ (h >>> 16)) & mask;
+        while (keys[pos] != null && (channels[pos] != channel || !keys[pos].equals(key))) {
+            pos = (pos + 1) & mask;
+        }
+        return pos;
+    }
+
+    private void reset() {
+        for (int i = 0; i < usedCount; i++) {
+            keys[used[i]] = null;
+        }
+        usedCount = 0;
+    }
+
+}
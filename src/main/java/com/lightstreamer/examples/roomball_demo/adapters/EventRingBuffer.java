@@ -0,0 +1,259 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hands the Event(s) of a room over from its engine thread to a dedicated
+ * publishing thread, through a preallocated ring of Event slots.
+ * There is a single producer (the engine thread of the room) and a single
+ * consumer (the publishing thread), so slots are claimed and released by
+ * plain sequence counters and the hand-off allocates nothing. The consumer
+ * drains all the available slots in a batch before releasing them.
+ * When the ring is full, the producer either waits for free slots or, for
+ * deferrable events, gives up, according to the FullPolicy.
+ * Before publishing a batch, the consumer conflates the pending updates of
+ * the same element, so that a slow publisher only gets the latest values.
+ */
+class EventRingBuffer implements Runnable {
+
+    enum FullPolicy {
+        /**
+         * The producer waits for free slots.
+         */
+        BLOCK,
+        /**
+         * Deferrable events (i.e. updates) are not claimed, so that the
+         * element stays changed and is published on a later frame; the
+         * other events wait for free slots.
+         */
+        DEFER_UPDATES
+    }
+
+    private static final long FULL_PARK = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long CLOSE_TIMEOUT = 1000;
+
+    // Member Fields -----------------------------------------------------------
+
+    private final Event[] slots;
+    private final int mask;
+
+    private final FullPolicy fullPolicy;
+
+    /**
+     * Sequence of the last slot made available to the consumer.
+     */
+    private final AtomicLong published = new AtomicLong(-1);
+
+    /**
+     * Sequence of the last slot released by the consumer.
+     */
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    // Producer side only
+    private long claimed = -1;
+    private long cachedConsumed = -1;
+    private long deferredCount = 0;
+
+    private volatile boolean consumerParked = false;
+
+    // Consumer side only
+    private final EventConflater conflater;
+    private volatile long conflatedCount = 0;
+
+    /**
+     * The interface the consumer publishes the events to.
+     */
+    private volatile Publisher publisher = new NullPublisher();
+
+    private final Thread consumerThread;
+
+    /**
+     * Cleared by close(), to let the consumer thread end.
+     */
+    private volatile boolean running = true;
+
+    private final Logger logger;
+
+    // Constructor -------------------------------------------------------------
+
+    /**
+     * @param name used to name the consumer thread
+     * @param size the number of slots, rounded up to a power of two
+     */
+    EventRingBuffer(String name, int size, FullPolicy fullPolicy) {
+        logger = LogManager.getLogger(RoomBallAdapter.ROOM_DEMO_LOGGER_NAME);
+
+        int capacity = Integer.highestOneBit(Math.max(2, size) - 1) << 1;
+        slots = new Event[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Event();
+        }
+        mask = capacity - 1;
+        this.fullPolicy = fullPolicy;
+        conflater = new EventConflater(capacity);
+
+        consumerThread = new Thread(this, "RoomBall publisher-" + name);
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    // Public Methods ----------------------------------------------------------
+
+    public void setPublisher(Publisher publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Stops the consumer thread and waits for it to end; the events not yet
+     * published are discarded. The ring cannot be used anymore.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumerThread);
+        if (Thread.currentThread() == consumerThread) {
+            return;
+        }
+        try {
+            consumerThread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (consumerThread.isAlive()) {
+            logger.warn("Thread " + consumerThread.getName() + " still running after close.");
+        }
+    }
+
+    /**
+     * Claims the next slot; producer side only.
+     * The claimed slot has to be filled and then made available by publish().
+     *
+     * @param deferrable whether the event may be given up when the ring is
+     * full, according to the FullPolicy.
+     * @return the slot to fill, or null if the event has been given up.
+     */
+    public Event claim(boolean deferrable) {
+        long next = claimed + 1;
+        long wrapPoint = next - slots.length;
+
+        if (wrapPoint > cachedConsumed) {
+            cachedConsumed = consumed.get();
+            if (wrapPoint > cachedConsumed) {
+                // full: let the consumer run, in case it is parked
+                flush();
+                if (deferrable && fullPolicy == FullPolicy.DEFER_UPDATES) {
+                    deferredCount++;
+                    return null;
+                }
+                while (wrapPoint > (cachedConsumed = consumed.get()) && running) {
+                    // once closed, nothing is consumed anymore
+                    LockSupport.parkNanos(FULL_PARK);
+                }
+            }
+        }
+
+        claimed = next;
+        return slots[(int) (next & mask)];
+    }
+
+    /**
+     * Makes the last claimed slot available to the consumer; producer side
+     * only. The consumer is not woken up until flush() is called, so that
+     * a whole frame can be handed over at once.
+     */
+    public void publish() {
+        published.lazySet(claimed);
+    }
+
+    /**
+     * Wakes the consumer up, if needed; producer side only.
+     */
+    public void flush() {
+        published.set(claimed);
+        if (consumerParked) {
+            LockSupport.unpark(consumerThread);
+        }
+    }
+
+    /**
+     * @return the number of events given up so far because the ring was
+     * full; producer side only.
+     */
+    public long getDeferredCount() {
+        return deferredCount;
+    }
+
+    /**
+     * @return the number of updates merged into newer ones so far.
+     */
+    public long getConflatedCount() {
+        return conflatedCount;
+    }
+
+    @Override
+    public void run() {
+        long next = 0;
+
+        while (running) {
+            long available = published.get();
+            if (available < next) {
+                // no timeout: flush() sees the flag and unparks, as does
+                // close(), hence an idle ring costs no wake-ups
+                consumerParked = true;
+                if (published.get() < next && running) {
+                    LockSupport.park(this);
+                }
+                consumerParked = false;
+                continue;
+            }
+
+            int conflated = conflater.conflate(slots, mask, next, available);
+            if (conflated > 0) {
+                conflatedCount += conflated;
+            }
+
+            Publisher target = publisher;
+            for (long sequence = next; sequence <= available; sequence++) {
+                Event event = slots[(int) (sequence & mask)];
+                try {
+                    if (event.isConflated()) {
+                        // merged into an older Event
+                    } else if (event.isEndOfSnapshot()) {
+                        target.publishEOS(event.getChannel());
+                    } else {
+                        target.publish(event);
+                    }
+                } catch (Exception e) {
+                    logger.warn("Exception publishing event.", e);
+                }
+                event.clear();
+            }
+
+            consumed.lazySet(available);
+            next = available + 1;
+        }
+    }
+
+}
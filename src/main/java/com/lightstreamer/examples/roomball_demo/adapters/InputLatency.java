@@ -0,0 +1,61 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The latency of the player commands, from their arrival to the Metadata
+ * Adapter until the resulting position is handed to the server, per stage:
+ * queue: from the arrival to the delivery to the room, through the
+ * DeliveryLanes;
+ * pickup: from the delivery to the room to the engine thread picking it up;
+ * step: from the command picked up to the first step that moves the player;
+ * publish: from that step to the update handed to the server;
+ * total: from the arrival to the update handed to the server.
+ * Only the oldest pending command of each player is tracked, and the same
+ * histograms are shared by all the rooms.
+ */
+final class InputLatency {
+
+    static final LatencyHistogram QUEUE = new LatencyHistogram("Input latency (queue)");
+    static final LatencyHistogram PICKUP = new LatencyHistogram("Input latency (pickup)");
+    static final LatencyHistogram STEP = new LatencyHistogram("Input latency (step)");
+    static final LatencyHistogram PUBLISH = new LatencyHistogram("Input latency (publish)");
+    static final LatencyHistogram TOTAL = new LatencyHistogram("Input latency (total)");
+
+    private static final LatencyHistogram[] STAGES = { QUEUE, PICKUP, STEP, PUBLISH, TOTAL };
+
+    private InputLatency() {
+    }
+
+    /**
+     * Logs the histograms recorded so far, if any, and resets them.
+     */
+    static void report(Logger logger) {
+        if (TOTAL.getCount() == 0 && QUEUE.getCount() == 0) {
+            return;
+        }
+        for (LatencyHistogram stage : STAGES) {
+            logger.info(stage);
+            stage.reset();
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+/**
+ * Hand-written parsing of the messages sent by the clients, working on
+ * indexes within the message, so that key commands are parsed without
+ * producing garbage.
+ * Supported messages are:
+ * "n|<nickname>|<roomId>", to log in, with an optional room id;
+ * "m|<text>", a chat message;
+ * "k|<command>[@<time>],<command>[@<time>],...", a batch of key commands,
+ * each optionally with the client time, in milliseconds, it was issued at;
+ * "<command>", a single key command.
+ */
+final class InputParser {
+
+    public static final int TYPE_COMMAND = 0;
+    public static final int TYPE_LOGIN = 1;
+    public static final int TYPE_CHAT = 2;
+    public static final int TYPE_BATCH = 3;
+
+    public static final char FIELD_SEPARATOR = '|';
+    public static final char BATCH_SEPARATOR = ',';
+    public static final char TIME_SEPARATOR = '@';
+
+    private InputParser() {
+    }
+
+    /**
+     * @return one of the TYPE_* constants.
+     */
+    public static int getType(String message) {
+        if (message.length() < 2 || message.charAt(1) != FIELD_SEPARATOR) {
+            return TYPE_COMMAND;
+        }
+        switch (message.charAt(0)) {
+            case 'n':
+                return TYPE_LOGIN;
+            case 'm':
+                return TYPE_CHAT;
+            case 'k':
+                return TYPE_BATCH;
+            default:
+                return TYPE_COMMAND;
+        }
+    }
+
+    /**
+     * @return the start of the key commands in a TYPE_BATCH or TYPE_COMMAND
+     * message.
+     */
+    public static int getCommandsStart(String message) {
+        return (getType(message) == TYPE_BATCH ? 2 : 0);
+    }
+
+    /**
+     * @return the number of key commands in a TYPE_BATCH or TYPE_COMMAND
+     * message.
+     */
+    public static int countCommands(String message) {
+        int count = 1;
+        for (int i = getCommandsStart(message); i < message.length(); i++) {
+            if (message.charAt(i) == BATCH_SEPARATOR) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the field with the given index, counting the type as field 0,
+     * or an empty string if there is no such field.
+     */
+    public static String getField(String message, int index) {
+        int start = 0;
+        for (int i = 0; i < index; i++) {
+            int separator = message.indexOf(FIELD_SEPARATOR, start);
+            if (separator < 0) {
+                return "";
+            }
+            start = separator + 1;
+        }
+        int end = message.indexOf(FIELD_SEPARATOR, start);
+        return message.substring(start, (end < 0 ? message.length() : end));
+    }
+
+    /**
+     * @return the non-negative decimal number between the given indexes, or
+     * -1 if there is none.
+     */
+    public static long parseNumber(CharSequence text, int from, int to) {
+        if (from >= to || to - from > 18) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    /**
+     * @return the index of the first occurrence of the character between the
+     * given indexes, or -1.
+     */
+    public static int indexOf(CharSequence text, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
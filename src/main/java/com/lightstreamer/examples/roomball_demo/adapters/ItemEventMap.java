@@ -0,0 +1,281 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A Map of item fields to values, restricted to the known Event.FIELD_*
+ * fields and backed by a fixed array, indexed by field.
+ * It is meant to be allocated once, along with its Event, and then cleared
+ * and refilled for each update; null values are not supported and mean
+ * that the field is not present.
+ * Iterating allocates nothing, as the entries and the iterator are allocated
+ * once per map; hence a new iteration restarts any iteration in progress,
+ * and the map can't be iterated in nested loops.
+ */
+public class ItemEventMap extends AbstractMap<String, String> {
+
+    /**
+     * The supported fields; the position of each field is its index.
+     */
+    private static final String[] FIELDS = {
+        Event.FIELD_KEY,
+        Event.FIELD_COMMAND,
+        Event.FIELD_POS_X,
+        Event.FIELD_POS_Y,
+        Event.FIELD_MSG,
+        Event.FIELD_USR_AGNT,
+        Event.FIELD_VEL_X,
+        Event.FIELD_VEL_Y,
+        Event.FIELD_TICK,
+        Event.FIELD_TIMESTAMP
+    };
+
+    private final String[] values = new String[FIELDS.length];
+
+    private int size = 0;
+
+    private final FieldEntry[] entries = new FieldEntry[FIELDS.length];
+
+    private final Set<Map.Entry<String, String>> entrySet = new EntrySet();
+
+    private final EntryIterator iterator = new EntryIterator();
+
+    // Constructor -------------------------------------------------------------
+
+    public ItemEventMap() {
+        for (int i = 0; i < FIELDS.length; i++) {
+            entries[i] = new FieldEntry(i);
+        }
+    }
+
+    // Nested Classes ----------------------------------------------------------
+
+    /**
+     * A live view on a field, allocated once per map.
+     */
+    private class FieldEntry implements Map.Entry<String, String> {
+
+        private final int index;
+
+        FieldEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return FIELDS[index];
+        }
+
+        @Override
+        public String getValue() {
+            return values[index];
+        }
+
+        @Override
+        public String setValue(String value) {
+            return put(FIELDS[index], value);
+        }
+
+        @Override
+        public int hashCode() {
+            String value = values[index];
+            return FIELDS[index].hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            String value = values[index];
+            return FIELDS[index].equals(other.getKey())
+                    && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override
+        public String toString() {
+            return FIELDS[index] + "=" + values[index];
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<String, String>> {
+
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            iterator.restart();
+            return iterator;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, String>> {
+
+        private int next = FIELDS.length;
+
+        void restart() {
+            next = advance(0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < FIELDS.length;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next >= FIELDS.length) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> entry = entries[next];
+            next = advance(next + 1);
+            return entry;
+        }
+
+        private int advance(int from) {
+            while (from < FIELDS.length && values[from] == null) {
+                from++;
+            }
+            return from;
+        }
+    }
+
+    // Public Methods ----------------------------------------------------------
+
+    @Override
+    public String get(Object field) {
+        int index = indexOf(field);
+        return (index < 0 ? null : values[index]);
+    }
+
+    @Override
+    public boolean containsKey(Object field) {
+        return get(field) != null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the field is not one of the
+     * Event.FIELD_* fields.
+     * @throws NullPointerException if the value is null.
+     */
+    @Override
+    public String put(String field, String value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        int index = indexOf(field);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unsupported field '" + field + "'");
+        }
+        String old = values[index];
+        if (old == null) {
+            size++;
+        }
+        values[index] = value;
+        return old;
+    }
+
+    @Override
+    public String remove(Object field) {
+        int index = indexOf(field);
+        if (index < 0 || values[index] == null) {
+            return null;
+        }
+        String old = values[index];
+        values[index] = null;
+        size--;
+        return old;
+    }
+
+    /**
+     * Copies all the fields present in that map, overwriting the ones
+     * already present.
+     */
+    public void putAll(ItemEventMap that) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (that.values[i] != null) {
+                if (values[i] == null) {
+                    size++;
+                }
+                values[i] = that.values[i];
+            }
+        }
+    }
+
+    /**
+     * @return the overall length of the values present, as an estimate of
+     * the bytes the update takes on the wire.
+     */
+    public int getPayloadSize() {
+        int payloadSize = 0;
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (values[i] != null) {
+                payloadSize += values[i].length();
+            }
+        }
+        return payloadSize;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < FIELDS.length; i++) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return entrySet;
+    }
+
+    // Private Methods ---------------------------------------------------------
+
+    private static int indexOf(Object field) {
+        // fields are normally the Event.FIELD_* constants themselves
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i] == field) {
+                return i;
+            }
+        }
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The arrow keys held down by a player, as a bitmask.
+ * Key transitions are applied atomically by the thread delivering the
+ * commands, while the engine thread just reads the current state on every
+ * step; hence no command needs to be queued to the engine thread.
+ * Commands are the key codes of the arrow keys, as "37" to "40" for a key
+ * pressed and "370" to "400" for a key released, possibly in batches, as
+ * parsed by InputParser.
+ */
+public class KeyState {
+
+    public static final int KEY_LEFT = 1;
+    public static final int KEY_UP = 1 << 1;
+    public static final int KEY_RIGHT = 1 << 2;
+    public static final int KEY_DOWN = 1 << 3;
+
+    /**
+     * The key code of the first arrow key; the bit of each key code, from
+     * this one on.
+     */
+    private static final int FIRST_KEY_CODE = 37;
+    private static final int[] KEY_BITS = { KEY_LEFT, KEY_UP, KEY_RIGHT, KEY_DOWN };
+
+    /**
+     * The longest time, in milliseconds, a batch is credited with having
+     * waited on the client: client times are not trusted beyond it.
+     */
+    private static final long MAX_BATCH_SPAN = 250;
+
+    /**
+     * The direction, on each axis, of every combination of keys.
+     */
+    private static final int[] DIRECTIONS_X = new int[16];
+    private static final int[] DIRECTIONS_Y = new int[16];
+
+    static {
+        for (int keys = 0; keys < 16; keys++) {
+            DIRECTIONS_X[keys] = ((keys & KEY_RIGHT) != 0 ? 1 : 0) - ((keys & KEY_LEFT) != 0 ? 1 : 0);
+            DIRECTIONS_Y[keys] = ((keys & KEY_DOWN) != 0 ? 1 : 0) - ((keys & KEY_UP) != 0 ? 1 : 0);
+        }
+    }
+
+    // Member Fields -----------------------------------------------------------
+
+    private final AtomicInteger keys = new AtomicInteger();
+
+    /**
+     * The System.nanoTime() of the arrival and of the delivery of the oldest
+     * command not yet picked up by the engine thread, or 0.
+     * Written only by the thread delivering the commands of the player.
+     */
+    private final AtomicLong pendingReceivedAt = new AtomicLong();
+    private long pendingDeliveredAt = 0;
+
+    /**
+     * The delivery time of the command last picked up; engine thread only.
+     */
+    private long takenDeliveredAt = 0;
+
+    // Public Methods ----------------------------------------------------------
+
+    /**
+     * @return the bit of the key in the command, positive if the key is
+     * pressed and negative if released, or 0 if the command is unknown.
+     */
+    public static int parseCommand(CharSequence command) {
+        return parseCommand(command, 0, command.length());
+    }
+
+    /**
+     * @return the bit of the key in the command between the given indexes,
+     * as for parseCommand(CharSequence).
+     */
+    public static int parseCommand(CharSequence text, int from, int to) {
+        int length = to - from;
+        if (length == 3 && text.charAt(from + 2) == '0') {
+            return -keyBit(text.charAt(from), text.charAt(from + 1));
+        } else if (length == 2) {
+            return keyBit(text.charAt(from), text.charAt(from + 1));
+        }
+        return 0;
+    }
+
+    /**
+     * Applies the key commands in the given message, from the given index
+     * on: a single command or a comma separated batch, where each command
+     * may carry the client time it was issued at, as "<command>@<time>".
+     * Unknown commands are skipped.
+     *
+     * @return the time elapsed on the client between the first and the last
+     * command of the batch, in milliseconds, if known, otherwise 0, and at
+     * most MAX_BATCH_SPAN; or -1 if no command has been applied.
+     */
+    public long applyCommands(String message, int from) {
+        int end = message.length();
+        boolean applied = false;
+        long firstTime = -1;
+        long lastTime = -1;
+
+        while (from < end) {
+            int commandEnd = InputParser.indexOf(message, InputParser.BATCH_SEPARATOR, from, end);
+            if (commandEnd < 0) {
+                commandEnd = end;
+            }
+            int timeStart = InputParser.indexOf(message, InputParser.TIME_SEPARATOR, from, commandEnd);
+
+            int transition = parseCommand(message, from, (timeStart < 0 ? commandEnd : timeStart));
+            if (transition != 0) {
+                apply(transition);
+                applied = true;
+                if (timeStart >= 0) {
+                    long time = InputParser.parseNumber(message, timeStart + 1, commandEnd);
+                    if (time >= 0) {
+                        if (firstTime < 0) {
+                            firstTime = time;
+                        }
+                        lastTime = time;
+                    }
+                }
+            }
+            from = commandEnd + 1;
+        }
+
+        if (!applied) {
+            return -1;
+        }
+        return (firstTime >= 0 && lastTime > firstTime ? Math.min(lastTime - firstTime, MAX_BATCH_SPAN) : 0);
+    }
+
+    /**
+     * Applies a key transition, as returned by parseCommand.
+     */
+    public void apply(int transition) {
+        if (transition > 0) {
+            press(transition);
+        } else if (transition < 0) {
+            release(-transition);
+        }
+    }
+
+    public void press(int bit) {
+        int current;
+        do {
+            current = keys.get();
+        } while ((current & bit) == 0 && !keys.compareAndSet(current, current | bit));
+    }
+
+    public void release(int bit) {
+        int current;
+        do {
+            current = keys.get();
+        } while ((current & bit) != 0 && !keys.compareAndSet(current, current & ~bit));
+    }
+
+    public int get() {
+        return keys.get();
+    }
+
+    /**
+     * @return the direction on the x axis of the given keys: -1, 0 or 1.
+     */
+    public static int getDirectionX(int keys) {
+        return DIRECTIONS_X[keys & 15];
+    }
+
+    /**
+     * @return the direction on the y axis of the given keys: -1, 0 or 1.
+     */
+    public static int getDirectionY(int keys) {
+        return DIRECTIONS_Y[keys & 15];
+    }
+
+    /**
+     * Tracks the latency of a command, unless an older one is still pending;
+     * to be called by the thread delivering the commands of the player.
+     */
+    public void trackInput(long receivedAt, long deliveredAt) {
+        if (pendingReceivedAt.get() == 0) {
+            pendingDeliveredAt = deliveredAt;
+            pendingReceivedAt.set(receivedAt);
+        }
+    }
+
+    /**
+     * Picks up the pending command, if any; engine thread only.
+     *
+     * @return the System.nanoTime() of the arrival of the command, or 0;
+     * the delivery time is then available through getTakenDeliveredAt().
+     */
+    public long takeInput() {
+        long receivedAt = pendingReceivedAt.get();
+        if (receivedAt != 0) {
+            takenDeliveredAt = pendingDeliveredAt;
+            pendingReceivedAt.set(0);
+        }
+        return receivedAt;
+    }
+
+    public long getTakenDeliveredAt() {
+        return takenDeliveredAt;
+    }
+
+    // Private Methods ---------------------------------------------------------
+
+    private static int keyBit(char tens, char units) {
+        if (tens < '0' || tens > '9' || units < '0' || units > '9') {
+            return 0;
+        }
+        int index = (tens - '0') * 10 + (units - '0') - FIRST_KEY_CODE;
+        if (index < 0 || index >= KEY_BITS.length) {
+            return 0;
+        }
+        return KEY_BITS[index];
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds.
+ * Values are counted in power-of-two buckets, so recording costs a couple of
+ * atomic increments and no allocation; percentiles are reported as the upper
+ * bound of the bucket they fall in, which is accurate within a factor of 2.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final String name;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+
+        long currMax;
+        while (nanos > (currMax = max.get())) {
+            if (max.compareAndSet(currMax, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param fraction the percentile as a fraction, e.g. 0.99
+     * @return the upper bound, in nanoseconds, of the bucket holding the
+     * given percentile, or 0 if nothing has been recorded.
+     */
+    public long getPercentile(double fraction) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= threshold) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return name + " - Count: " + getCount() + ", p50: " + toMicros(getPercentile(0.5)) + " us, p90: "
+                + toMicros(getPercentile(0.9)) + " us, p99: " + toMicros(getPercentile(0.99)) + " us, p99.9: "
+                + toMicros(getPercentile(0.999)) + " us, Max: " + toMicros(getMax()) + " us.";
+    }
+
+    // Private Methods ---------------------------------------------------------
+
+    private static long upperBound(int bucket) {
+        return (bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1);
+    }
+
+    private static long toMicros(long nanos) {
+        return nanos / 1000;
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The names taken by the players, compared case-insensitively.
+ * A name already taken is replaced by the same name followed by a numeric
+ * suffix: each base name keeps the suffixes released by its players and a
+ * counter of the next suffix never used, so that a free name is found in
+ * constant time, however popular the base name is. The suffixes of a base
+ * name are discarded as soon as no name with a suffix is taken.
+ * No lock is involved; names are claimed through atomic inserts.
+ */
+class NicknameIndex {
+
+    /**
+     * The owner of a taken name, and how the name was made up.
+     */
+    private static class Claim {
+
+        private final String sessionID;
+        private final String baseKey;
+        private final int suffix;
+
+        Claim(String sessionID, String baseKey, int suffix) {
+            this.sessionID = sessionID;
+            this.baseKey = baseKey;
+            this.suffix = suffix;
+        }
+    }
+
+    /**
+     * The suffixes of a base name.
+     */
+    private static class Suffixes {
+
+        private final AtomicInteger next = new AtomicInteger(2);
+        private final ConcurrentLinkedQueue<Integer> released = new ConcurrentLinkedQueue<Integer>();
+
+        /**
+         * The names taken with a suffix, plus the claims in progress;
+         * guarded by the compute methods of the map.
+         */
+        private int holders = 0;
+    }
+
+    // Member Fields -----------------------------------------------------------
+
+    /**
+     * Claims indexed by the lower case name.
+     */
+    private final ConcurrentHashMap<String, Claim> claims = new ConcurrentHashMap<String, Claim>();
+
+    /**
+     * Suffixes indexed by the lower case base name; only base names with
+     * some suffix taken, or being taken, have an entry.
+     */
+    private final ConcurrentHashMap<String, Suffixes> suffixes = new ConcurrentHashMap<String, Suffixes>();
+
+    // Public Methods ----------------------------------------------------------
+
+    /**
+     * Takes the proposed name for the session, or, if already taken, the
+     * proposed name with a released suffix or with a new one.
+     *
+     * @return the name taken, keeping the case of the proposed name.
+     */
+    public String claim(String proposedName, String sessionID) {
+        String baseKey = toKey(proposedName);
+        if (claims.putIfAbsent(baseKey, new Claim(sessionID, baseKey, 0)) == null) {
+            return proposedName;
+        }
+
+        // the claim holds the Suffixes from now on: claims never fail, they
+        // just move on to the next suffix
+        Suffixes baseSuffixes = suffixes.compute(baseKey, (k, s) -> {
+            if (s == null) {
+                s = new Suffixes();
+            }
+            s.holders++;
+            return s;
+        });
+        Integer released;
+        while ((released = baseSuffixes.released.poll()) != null) {
+            // a released suffix may have been taken meanwhile as a name on its own
+            if (tryClaim(baseKey, released.intValue(), sessionID)) {
+                return proposedName + released;
+            }
+        }
+        while (true) {
+            int suffix = baseSuffixes.next.getAndIncrement();
+            if (tryClaim(baseKey, suffix, sessionID)) {
+                return proposedName + suffix;
+            }
+        }
+    }
+
+    /**
+     * Releases the name, if still taken by the session.
+     */
+    public void release(String name, String sessionID) {
+        String key = toKey(name);
+        Claim claim = claims.get(key);
+        if (claim == null || !claim.sessionID.equals(sessionID) || !claims.remove(key, claim)) {
+            return;
+        }
+        if (claim.suffix > 0) {
+            suffixes.computeIfPresent(claim.baseKey, (k, s) -> {
+                if (--s.holders == 0) {
+                    // no suffix taken: numbering can start over
+                    return null;
+                }
+                s.released.offer(claim.suffix);
+                return s;
+            });
+        }
+    }
+
+    /**
+     * @return the number of names taken.
+     */
+    public int size() {
+        return claims.size();
+    }
+
+    // Private Methods ---------------------------------------------------------
+
+    private boolean tryClaim(String baseKey, int suffix, String sessionID) {
+        return claims.putIfAbsent(baseKey + suffix, new Claim(sessionID, baseKey, suffix)) == null;
+    }
+
+    private static String toKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+}
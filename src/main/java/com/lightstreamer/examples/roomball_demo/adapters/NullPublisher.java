@@ -27,7 +27,7 @@ public class NullPublisher implements Publisher {
     }
 
     @Override
-    public void publishEOS() {
+    public void publishEOS(int channel) {
     }
 
     @Override
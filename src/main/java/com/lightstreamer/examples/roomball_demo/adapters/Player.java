@@ -22,11 +22,13 @@ import org.jbox2d.dynamics.Body;
 
 public class Player extends AbstractElement {
 
-    public static final String USERDATA_PLAYER = "PLAYER";
-
     // Member Variables --------------------------------------------------------
 
-    private Impulse impulse = Impulse.NULL;
+    /**
+     * The keys held down, updated by the commands and turned into an
+     * impulse on every step.
+     */
+    private final KeyState keyState = new KeyState();
 
     private String lastMsg = "";
 
@@ -36,6 +38,22 @@ public class Player extends AbstractElement {
 
     private boolean usrAgentChanged = false;
 
+    /**
+     * Incremented on every new message, to track the message last published
+     * at each level of detail.
+     */
+    private int msgVersion = 0;
+    private int[] detailMsgVersions = new int[0];
+
+    /**
+     * The System.nanoTime() of the oldest command not yet reflected in a
+     * published update: when it arrived, when it was applied and when the
+     * first step after it was run; 0 if not yet happened.
+     */
+    private long inputReceivedAt = 0;
+    private long inputAppliedAt = 0;
+    private long inputSteppedAt = 0;
+
 
     // Constructor -------------------------------------------------------------
 
@@ -65,6 +83,26 @@ public class Player extends AbstractElement {
         this.usrAgentChanged = false;
     }
 
+    @Override
+    public void setDetailLevels(int[] detailGrids) {
+        super.setDetailLevels(detailGrids);
+        this.detailMsgVersions = new int[detailGrids.length];
+        for (int level = 0; level < detailGrids.length; level++) {
+            this.detailMsgVersions[level] = msgVersion - 1;
+        }
+    }
+
+    @Override
+    public boolean isChanged(int level) {
+        return super.isChanged(level) || lastMsgIsChanged(level);
+    }
+
+    @Override
+    public void setAsNotChanged(int level) {
+        super.setAsNotChanged(level);
+        this.detailMsgVersions[level] = msgVersion;
+    }
+
     @Override
     public void accept(ElementVisitor visitor) {
         visitor.visit(this);
@@ -86,14 +124,64 @@ public class Player extends AbstractElement {
     public void setLastMsg(String lastMsg) {
         this.lastMsg = lastMsg;
         lastMsgChanged = true;
+        msgVersion++;
     }
 
-    public void applyImpulse() {
-        applyImpulse(impulse);
+    public KeyState getKeyState() {
+        return keyState;
     }
 
-    public void addImpulse(int intensityX, int intensityY) {
-        impulse = impulse.sum(new Impulse(intensityX, intensityY));
+    /**
+     * Applies the impulse resulting from the keys held down.
+     *
+     * @param intensity the impulse on each axis with a key held down.
+     */
+    public void applyImpulse(int intensity) {
+        int keys = keyState.get();
+        applyImpulse(KeyState.getDirectionX(keys) * intensity, KeyState.getDirectionY(keys) * intensity);
+    }
+
+    /**
+     * Tracks a command picked up by the engine, unless an older one is still
+     * pending.
+     */
+    public void trackInput(long receivedAt, long appliedAt) {
+        if (inputReceivedAt != 0) {
+            return;
+        }
+        this.inputReceivedAt = receivedAt;
+        this.inputAppliedAt = appliedAt;
+        this.inputSteppedAt = 0;
+    }
+
+    /**
+     * @return whether a command has been applied but no step has been run
+     * since.
+     */
+    public boolean isInputStepPending() {
+        return inputAppliedAt != 0 && inputSteppedAt == 0;
+    }
+
+    public long getInputAppliedAt() {
+        return inputAppliedAt;
+    }
+
+    public void setInputSteppedAt(long steppedAt) {
+        this.inputSteppedAt = steppedAt;
+    }
+
+    public long getInputReceivedAt() {
+        return inputReceivedAt;
+    }
+
+    public long getInputSteppedAt() {
+        return inputSteppedAt;
+    }
+
+    public void clearInput() {
+        this.inputReceivedAt = 0;
+        this.inputAppliedAt = 0;
+        this.inputSteppedAt = 0;
     }
 
     // Protected Methods -------------------------------------------------------
@@ -102,10 +190,12 @@ public class Player extends AbstractElement {
         return this.lastMsgChanged;
     }
 
+    protected boolean lastMsgIsChanged(int level) {
+        return this.detailMsgVersions[level] != msgVersion;
+    }
+
     protected boolean usrAgentIsChanged() {
         return this.usrAgentChanged;
     }
 
-    // Private Methods ---------------------------------------------------------
-
 }
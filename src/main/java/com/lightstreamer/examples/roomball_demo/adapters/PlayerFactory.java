@@ -79,7 +79,6 @@ class PlayerFactory {
         bodyDef.fixedRotation = true;
 
         Body body = world.createBody(bodyDef);
-        body.setUserData(Player.USERDATA_PLAYER);
 
         for(int p=0; p<POLYGONS.length; p++)
         {
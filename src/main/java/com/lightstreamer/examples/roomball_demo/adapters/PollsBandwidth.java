@@ -21,7 +21,7 @@ package com.lightstreamer.examples.roomball_demo.adapters;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.MBeanServer;
 import javax.management.MBeanServerFactory;
@@ -30,32 +30,64 @@ import javax.management.ObjectName;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Polls the current bandwidth of all the sessions subscribed to their own
+ * bandwidth item, in a single pass per cycle, and publishes the results.
+ * The MBeanServer of Lightstreamer is resolved once, hence the cost of
+ * each cycle is just one attribute read per subscribed session.
+ * The overall bandwidth is aggregated in the same pass and published as a
+ * whole, so that it can be read by any thread without touching JMX.
+ */
 public class PollsBandwidth implements Runnable {
 
     private static final String FIELD_CURRENT_BANDWIDTH = "currentBandwidth";
 
-    private MBeanServer server;
-    private ObjectName sessionMBeanName = null;
-    private String user = "";
-    private ScheduledFuture<?> task = null;
+    private static final String ATTRIBUTE_BANDWIDTH = "CurrentBandwidthKbps";
+
+    /**
+     * A session whose bandwidth is polled.
+     */
+    static class PolledSession {
+
+        private final String user;
+        private final ObjectName sessionMBeanName;
 
-    private Publisher publisher;
+        PolledSession(String user, ObjectName sessionMBeanName) {
+            this.user = user;
+            this.sessionMBeanName = sessionMBeanName;
+        }
+    }
+
+    private volatile MBeanServer server = null;
+
+    /**
+     * Map of PolledSession indexed by item name [itemName = "My_Band_"+userName]
+     */
+    private final ConcurrentHashMap<String, PolledSession> sessions =
+            new ConcurrentHashMap<String, PolledSession>();
+
+    private volatile Publisher publisher;
+
+    /**
+     * The overall bandwidth of the polled sessions, as of the last cycle.
+     */
+    private volatile double totalBandwidth = 0.0;
 
     /**
      * should be supplied by logback configuration.
      */
     private Logger logger = null;
 
-
-    public ScheduledFuture<?> getTask() {
-        return task;
+    public PollsBandwidth(Publisher publisher) {
+        this.publisher = publisher;
+        logger = LogManager.getLogger(RoomBallAdapter.ROOM_DEMO_LOGGER_NAME);
     }
 
-    public void setTask(ScheduledFuture<?> task) {
-        this.task = task;
+    public void setPublisher(Publisher publisher) {
+        this.publisher = publisher;
     }
 
-    public PollsBandwidth(String sessionId, String user, int port, Publisher publisher) {
+    public void addSession(String itemName, String sessionId, String user) {
         try {
             /*
             JMXServiceURL url = new JMXServiceURL("service:jmx:jmxmp://localhost:"+port);
@@ -65,71 +97,116 @@ public class PollsBandwidth implements Runnable {
             this.mbeanName =  new ObjectName("com.lightstreamer:type=Session,sessionId="+sessionId);
             */
 
-            server = null;
-            ObjectName mbeanName = new ObjectName("com.lightstreamer", "type", "Server");
-            if (mbeanName != null) {
-                ArrayList<MBeanServer> servers = MBeanServerFactory.findMBeanServer(null);
-                MBeanServer found = null;
-                for (int i = 0; i < servers.size(); i++) {
-                    found = (MBeanServer) servers.get(i);
-                    if (found.isRegistered(mbeanName)) {
-                        break;
-                    } else {
-                        found = null;
-                    }
-                }
-                server = found;
-            }
-
             Hashtable<String, String> props = new Hashtable<String, String>();
             props.put("type", "Session");
             props.put("sessionId", sessionId);
 
-            sessionMBeanName = new ObjectName("com.lightstreamer", props);
-
-            this.user = user;
-            this.publisher = publisher;
-            logger = LogManager.getLogger(RoomBallAdapter.ROOM_DEMO_LOGGER_NAME);
-
+            sessions.put(itemName, new PolledSession(user, new ObjectName("com.lightstreamer", props)));
         } catch (Exception e) {
-            // Skip. Eventually log here ...
+            logger.warn("Unable to poll the bandwidth of session " + sessionId, e);
         }
     }
 
-    public void forceMeOut() {
+    public void removeSession(String itemName) {
+        sessions.remove(itemName);
+    }
+
+    public void forceOut(String itemName) {
+        PolledSession session = sessions.get(itemName);
+        MBeanServer server = getServer();
+        if (session == null || server == null) {
+            return;
+        }
         try {
-            server.invoke(sessionMBeanName, "destroySession", null, null);
+            server.invoke(session.sessionMBeanName, "destroySession", null, null);
         } catch (Exception e) {
             // it is still possible that the session has just ended
             return;
         }
     }
 
-    public double getBandwidth() {
-        try {
-            Double d = (Double)server.getAttribute(sessionMBeanName, "CurrentBandwidthKbps");
-            return d;
-        } catch (Exception e) {
-            return 0.0;
-        }
+    /**
+     * @return the overall bandwidth of the polled sessions, as of the last
+     * cycle; it never blocks.
+     */
+    public double getTotalBandwidth() {
+        return totalBandwidth;
     }
 
     @Override
     public void run () {
-        try {
-            Double bandwidth = (Double)server.getAttribute(sessionMBeanName, "CurrentBandwidthKbps");
+        if (sessions.isEmpty()) {
+            totalBandwidth = 0.0;
+            return;
+        }
+        MBeanServer server = getServer();
+        if (server == null) {
+            totalBandwidth = 0.0;
+            return;
+        }
 
-            if ( logger != null && logger.isDebugEnabled()) {
-                logger.debug("Update current bandwidth for user " + user + ": " + bandwidth);
+        double sum = 0.0;
+        Publisher publisher = this.publisher;
+        for (PolledSession session : sessions.values()) {
+            try {
+                Double bandwidth = getBandwidth(server, session);
+                if (bandwidth == null) {
+                    // not read: nothing to send
+                    continue;
+                }
+                sum += bandwidth;
+
+                if ( logger.isDebugEnabled()) {
+                    logger.debug("Update current bandwidth for user " + session.user + ": " + bandwidth);
+                }
+
+                final HashMap<String, String> update = new HashMap<String, String>();
+                update.put(FIELD_CURRENT_BANDWIDTH, roundToSend(bandwidth, 2));
+
+                publisher.postBandwith(session.user, update);
+            } catch (Exception e) {
+                logger.warn("Unexpected error polling the bandwidth of user " + session.user + ".", e);
             }
+        }
+        totalBandwidth = sum;
+    }
 
-            final HashMap<String, String> update = new HashMap<String, String>();
-            update.put(FIELD_CURRENT_BANDWIDTH, roundToSend(bandwidth, 2));
+    // Private Methods ---------------------------------------------------------
 
-            publisher.postBandwith(this.user, update);
+    /**
+     * @return the MBeanServer of Lightstreamer, resolved on first success.
+     */
+    private MBeanServer getServer() {
+        MBeanServer found = server;
+        if (found != null) {
+            return found;
+        }
+        try {
+            ObjectName mbeanName = new ObjectName("com.lightstreamer", "type", "Server");
+            ArrayList<MBeanServer> servers = MBeanServerFactory.findMBeanServer(null);
+            for (int i = 0; i < servers.size(); i++) {
+                if (servers.get(i).isRegistered(mbeanName)) {
+                    found = servers.get(i);
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            // Skip, retried on the next cycle
+        }
+        server = found;
+        return found;
+    }
+
+    /**
+     * @return the current bandwidth of the session, or null if it could not
+     * be read.
+     */
+    private Double getBandwidth(MBeanServer server, PolledSession session) {
+        try {
+            return (Double)server.getAttribute(session.sessionMBeanName, ATTRIBUTE_BANDWIDTH);
         } catch (Exception e) {
-            // send update ERR.
-            // this.listener.postBandwith(BAND_PREFIX+this.user, new Double(0));
+            // the session may have just ended
+            return null;
         }
     }
 
@@ -25,7 +25,7 @@ public interface Publisher {
 
     public void publish(Event event);
 
-    public void publishEOS();
+    public void publishEOS(int channel);
 
     public void postBandwith(String userName, Map<String, String> itemEvent);
 
@@ -18,24 +18,69 @@
 
 package com.lightstreamer.examples.roomball_demo.adapters;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface Room {
 
+    public String getId();
+
+    public int getPlayersCount();
+
+    /**
+     * Takes a place for a new player, before submitting it.
+     *
+     * @return false if all the places up to maxPlayers are taken.
+     */
+    public boolean reservePlayer(int maxPlayers);
+
+    /**
+     * Frees a place taken through reservePlayer, once the player has left
+     * or could not be added.
+     */
+    public void releasePlayer();
+
+    public void setPublisher(Publisher publisher);
+
     public void start();
 
     public void stop();
 
-    public int addPlayer(String proposedName, String userAgent) throws RoomException;
+    /**
+     * @return a future completed with the KeyState of the new player, which
+     * the key commands of the player are applied to directly.
+     */
+    public CompletableFuture<KeyState> addPlayer(String proposedName, String userAgent);
 
-    public int removePlayer(String name);
+    public void removePlayer(String name);
 
     public void updatePlayerMsg(String name, String message);
 
-    public void dispatchCommand(String name, String command);
-
     public void touchAllElements();
 
-    public void addPollsBandwidth(String sessionID, String itemName, String usr, int jmxPort);
+    /**
+     * @return the number of channels (i.e. items) the room publishes to:
+     * the main channel, listing all the elements, plus one per reduced level
+     * of detail, plus one per cell of the interest grid.
+     */
+    public int getChannelsCount();
+
+    /**
+     * @return the channel of the given reduced level of detail, starting
+     * from 1, or -1 if there is no such level.
+     */
+    public int getDetailChannel(int level);
+
+    /**
+     * @return the channel of the given cell of the interest grid, or -1 if
+     * there is no such cell.
+     */
+    public int getCellChannel(int cellX, int cellY);
+
+    /**
+     * Starts publishing the given channel, beginning with its snapshot.
+     */
+    public void subscribeChannel(int channel);
 
-    public void killBandChecker(String itemName);
+    public void unsubscribeChannel(int channel);
 
 }
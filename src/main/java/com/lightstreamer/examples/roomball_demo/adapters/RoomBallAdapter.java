@@ -19,7 +19,10 @@
 package com.lightstreamer.examples.roomball_demo.adapters;
 
 import java.io.File;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -36,8 +39,25 @@ public class RoomBallAdapter implements SmartDataProvider, Publisher {
     
     private static final String CFG_PARAM_FRAME_RATE = "frameRate";
     private static final String CFG_PARAM_STEPS_PER_FRAME = "stepsPerFrame";
-
-    private static final String ITEM_NAME_PLAYERS_LIST = "Players_list";
+    private static final String CFG_PARAM_MAX_CATCH_UP_STEPS = "maxCatchUpSteps";
+    private static final String CFG_PARAM_WAIT_STRATEGY = "waitStrategy";
+    private static final String CFG_PARAM_SPIN_MICROS = "spinMicros";
+    private static final String CFG_PARAM_SCHEDULER_THREADS = "schedulerThreads";
+    private static final String CFG_PARAM_RING_BUFFER_SIZE = "ringBufferSize";
+    private static final String CFG_PARAM_RING_BUFFER_FULL_POLICY = "ringBufferFullPolicy";
+    private static final String CFG_PARAM_REUSE_ITEM_EVENTS = "reuseItemEvents";
+    private static final String CFG_PARAM_POSITION_GRID = "positionGrid";
+    private static final String CFG_PARAM_INTEREST_CELL_SIZE = "interestCellSize";
+    private static final String CFG_PARAM_UPDATE_BUDGET = "updateBudget";
+    private static final String CFG_PARAM_UPDATE_BUDGET_BYTES = "updateBudgetBytes";
+    private static final String CFG_PARAM_DETAIL_LEVELS = "detailLevels";
+    private static final String CFG_PARAM_DETAIL_FRAME_DIVISOR = "detailFrameDivisor";
+    private static final String CFG_PARAM_DETAIL_GRID_FACTOR = "detailGridFactor";
+    private static final String CFG_PARAM_EXTRAPOLATION = "extrapolation";
+    private static final String CFG_PARAM_VELOCITY_THRESHOLD = "velocityThreshold";
+    private static final String CFG_PARAM_FRAME_STAMPS = "frameStamps";
+
+    private static final String ITEM_NAME_PLAYERS_LIST = RoomItemName.ITEM_NAME_PLAYERS_LIST;
     private static final String ITEM_NAME_PREFIX_BAND = "My_Band_";
 
     private Logger logger;
@@ -48,23 +68,153 @@ public class RoomBallAdapter implements SmartDataProvider, Publisher {
     private volatile ItemEventListener listener = null;
 
     /**
-     * Flag indicating whether the item "Players_list" is subscribed or not
-     * It is not guarded by any lock to avoid to lock the call to
-     * listener.smartUpdate(..). If, due to a race condition, smartUpdate is
-     * called after an unsubscribe, the server will ignore the update, and
-     * may log a warning.
+     * The registry of the rooms where the players and the ball move
+     */
+    private RoomRegistry registry;
+
+    /**
+     * Map of the publishers of the "Players_list" items indexed by room id.
      */
-    volatile private boolean playerListSubscribed = false;
+    private final ConcurrentHashMap<String, RoomPublisher> roomPublishers =
+            new ConcurrentHashMap<String, RoomPublisher>();
+
+    /**
+     * Whether the field maps of the Event(s) are handed to the kernel as they
+     * are, to be reused for later Event(s) once the smartUpdate call returns,
+     * or copied first (default). The ItemEventListener contract does not
+     * state that the map is no longer accessed after the call, hence reuse
+     * has to be enabled explicitly, once verified with the Server in use.
+     */
+    private boolean reuseItemEvents = false;
+
+    // Nested Class ------------------------------------------------------------
 
     /**
-     * The room where the players and the ball move
+     * A subscribed "Players_list" item.
      */
-    private Room room;
+    static class PlayersListItem {
+
+        private final String itemName;
+
+        /**
+         * The handle received by subscription and used to send messages to.
+         */
+        private final Object handle;
+
+        PlayersListItem(String itemName, Object handle) {
+            this.itemName = itemName;
+            this.handle = handle;
+        }
+    }
 
     /**
-     * The handle received by subscription and used to send messages to.
+     * Publishes the events of a room to the "Players_list" items subscribed
+     * for it, according to the channel of each event: the item listing the
+     * whole room or the items listing single cells.
+     * The room runs as long as any of its items is subscribed, and the
+     * publisher is dropped once none is.
      */
-    private volatile Object playerListHandle = null;
+    class RoomPublisher implements Publisher {
+
+        private final Room room;
+
+        /**
+         * The subscribed items indexed by channel.
+         * Not guarded by any lock to avoid to lock the call to
+         * listener.smartUpdate(..). If, due to a race condition, smartUpdate is
+         * called after an unsubscribe, the server will ignore the update, and
+         * may log a warning.
+         */
+        private final AtomicReferenceArray<PlayersListItem> items;
+
+        private int subscribedCount = 0;
+
+        RoomPublisher(Room room) {
+            this.room = room;
+            this.items = new AtomicReferenceArray<PlayersListItem>(room.getChannelsCount());
+        }
+
+        synchronized void subscribe(int channel, PlayersListItem item) {
+            items.set(channel, item);
+            if (subscribedCount++ == 0) {
+                room.start();
+            }
+            room.subscribeChannel(channel);
+        }
+
+        /**
+         * @return whether the channel was subscribed.
+         */
+        synchronized boolean unsubscribe(int channel) {
+            if (items.getAndSet(channel, null) == null) {
+                return false;
+            }
+            room.unsubscribeChannel(channel);
+            if (--subscribedCount == 0) {
+                room.stop();
+            }
+            return true;
+        }
+
+        synchronized boolean isIdle() {
+            return subscribedCount == 0;
+        }
+
+        @Override
+        public void publish(Event event) {
+
+            try {
+
+                if ( listener == null ) {
+                    return ;
+                }
+
+                PlayersListItem item = items.get(event.getChannel());
+                if (item == null) {
+                    return;
+                }
+
+                logger.debug("Update list " + item.itemName + " " + event.getCommand() + " " + event.getKey());
+
+                Map<String, String> itemEvent = event.getItemEvent();
+                if (!reuseItemEvents) {
+                    itemEvent = new HashMap<String, String>(itemEvent);
+                }
+                listener.smartUpdate(item.handle, itemEvent, event.isSnapshot());
+
+                if (event.getInputReceivedAt() != 0) {
+                    long now = System.nanoTime();
+                    InputLatency.PUBLISH.record(now - event.getInputSteppedAt());
+                    InputLatency.TOTAL.record(now - event.getInputReceivedAt());
+                }
+
+            } catch (Exception e) {
+                logger.warn("Exception sending event.", e);
+            }
+        }
+
+        @Override
+        public void publishEOS(int channel) {
+
+            if (listener == null) {
+                return;
+            }
+            PlayersListItem item = items.get(channel);
+            if (item == null) {
+                return;
+            }
+
+            // call the update on the listener;
+            // in case the listener has just been detached,
+            // the listener should detect the case
+            listener.smartEndOfSnapshot(item.handle);
+        }
+
+        @Override
+        public void postBandwith(String userName, Map<String, String> itemEvent) {
+            RoomBallAdapter.this.postBandwith(userName, itemEvent);
+        }
+    }
 
     // Public Methods Implementing DataProvider Methods ------------------------
 
@@ -78,9 +228,14 @@ public class RoomBallAdapter implements SmartDataProvider, Publisher {
             System.out.println("Loggers failed to load: " + e);
         }
 
-        room = initRoom(params);
+        if (params.containsKey(CFG_PARAM_REUSE_ITEM_EVENTS)) {
+            logger.debug("Reuse of item events configured: " + params.get(CFG_PARAM_REUSE_ITEM_EVENTS));
+            reuseItemEvents = Boolean.parseBoolean((String)params.get(CFG_PARAM_REUSE_ITEM_EVENTS));
+        }
+
+        registry = initRegistry(params);
 
-        if (room == null) {
+        if (registry == null) {
             throw new DataProviderException("Room not ready!");
         }
         
@@ -96,7 +251,7 @@ public class RoomBallAdapter implements SmartDataProvider, Publisher {
 
     @Override
     public boolean isSnapshotAvailable(String itemName)  throws SubscriptionException {
-        if (itemName.startsWith(ITEM_NAME_PLAYERS_LIST)) {
+        if (RoomItemName.parse(itemName) != null) {
             return true;
         }
         return false;
@@ -105,12 +260,40 @@ public class RoomBallAdapter implements SmartDataProvider, Publisher {
     @Override
     public void subscribe(String itemName, Object handle, boolean needsIterator) throws SubscriptionException,FailureException {
 
-         if (itemName.startsWith(ITEM_NAME_PLAYERS_LIST)) {
-             logger.debug("Subscribe request for '" + ITEM_NAME_PLAYERS_LIST + "'.");
-             playerListSubscribed = true;
-             playerListHandle = handle;
-             room.start();
-             room.touchAllElements();
+        if (itemName.startsWith(ITEM_NAME_PLAYERS_LIST)) {
+            RoomItemName name = RoomItemName.parse(itemName);
+            if (name == null) {
+                throw new SubscriptionException("Unexpected item '" + itemName + "'.");
+            }
+
+            // checked before any room is created for the item
+            if (!registry.hasChannel(name)) {
+                throw new SubscriptionException("No such cell or level of detail for item '" + itemName + "'.");
+            }
+
+            final Room room;
+            try {
+                room = registry.acquireRoom(name.getRoomId());
+            } catch (RoomException e) {
+                throw new SubscriptionException(e.getMessage());
+            }
+
+            final int channel = getChannelOf(name, room);
+            if (channel < 0) {
+                registry.releaseRoom(room);
+                throw new SubscriptionException("No such cell or level of detail for item '" + itemName + "'.");
+            }
+
+            logger.debug("Subscribe request for '" + itemName + "'.");
+            final PlayersListItem item = new PlayersListItem(itemName, handle);
+            roomPublishers.compute(name.getRoomId(), (roomId, roomPublisher) -> {
+                if (roomPublisher == null || roomPublisher.room != room) {
+                    roomPublisher = new RoomPublisher(room);
+                    room.setPublisher(roomPublisher);
+                }
+                roomPublisher.subscribe(channel, item);
+                return roomPublisher;
+            });
 
         } else if (itemName.startsWith(ITEM_NAME_PREFIX_BAND)) {
             // Nothing to do.
@@ -128,10 +311,23 @@ public class RoomBallAdapter implements SmartDataProvider, Publisher {
 
         if (itemName.startsWith(ITEM_NAME_PLAYERS_LIST)) {
             logger.debug("Unsubscribe request for '" + itemName + "'.");
-            playerListSubscribed = false;
-            room.stop();
+            RoomItemName name = RoomItemName.parse(itemName);
+            if (name == null) {
+                return;
+            }
+            final Room[] released = new Room[1];
+            roomPublishers.computeIfPresent(name.getRoomId(), (roomId, roomPublisher) -> {
+                int channel = getChannelOf(name, roomPublisher.room);
+                if (channel >= 0 && roomPublisher.unsubscribe(channel)) {
+                    released[0] = roomPublisher.room;
+                }
+                return (roomPublisher.isIdle() ? null : roomPublisher);
+            });
+            if (released[0] != null) {
+                registry.releaseRoom(released[0]);
+            }
         } else if (itemName.startsWith(ITEM_NAME_PREFIX_BAND)) {
-            room.killBandChecker(itemName);
+            registry.killBandChecker(itemName);
         }
     }
 
@@ -139,43 +335,12 @@ public class RoomBallAdapter implements SmartDataProvider, Publisher {
 
     @Override
     public void publish(Event event) {
-
-        try {
-
-            if ( listener == null ) {
-                return ;
-            }
-            if (playerListHandle == null) {
-                return;
-            }
-
-            if (!playerListSubscribed) {
-                return;
-            }
-
-            logger.debug("Update list " + ITEM_NAME_PLAYERS_LIST + " " + event.getCommand() + " " + event.getKey());
-
-            listener.smartUpdate(playerListHandle, event.getItemEvent(), event.isSnapshot());
-
-        } catch (Exception e) {
-            logger.warn("Exception sending event.", e);
-        }
+        // Room events are published by the RoomPublisher of each room.
     }
 
     @Override
-    public void publishEOS() {
-
-        if (listener == null) {
-            return;
-        }
-        if (playerListHandle == null) {
-            return;
-        }
-
-        // call the update on the listener;
-        // in case the listener has just been detached,
-        // the listener should detect the case
-        listener.smartEndOfSnapshot(playerListHandle);
+    public void publishEOS(int channel) {
+        // Room events are published by the RoomPublisher of each room.
     }
 
     @Override
@@ -189,28 +354,137 @@ public class RoomBallAdapter implements SmartDataProvider, Publisher {
 
     // Private Methods ---------------------------------------------------------
 
+    /**
+     * @return the channel of the room the item refers to, or -1 if the item
+     * refers to a cell or a level of detail the room has not.
+     */
+    private static int getChannelOf(RoomItemName name, Room room) {
+        if (name.isCell()) {
+            return room.getCellChannel(name.getCellX(), name.getCellY());
+        }
+        if (name.isDetail()) {
+            return room.getDetailChannel(name.getDetailLevel());
+        }
+        return Event.CHANNEL_MAIN;
+    }
+
     @SuppressWarnings("rawtypes")
-    private Box2DRoom initRoom(Map params) {
+    private RoomRegistry initRegistry(Map params) {
         
-        Box2DRoom room = Box2DRoom.getInstance();
+        RoomRegistry registry = RoomRegistry.getInstance();
         
-        if (room == null) {
+        if (registry == null) {
             return null;
         }
         
-        room.setPublisher(this);
+        registry.setPublisher(this);
+
+        RoomConfig config = new RoomConfig();
 
         if (params.containsKey(CFG_PARAM_FRAME_RATE)) {
             logger.debug("frameRate configured: " + params.get(CFG_PARAM_FRAME_RATE));
-            room.setFrameRate(new Integer((String)params.get(CFG_PARAM_FRAME_RATE)).intValue());
+            config.setFrameRate(new Integer((String)params.get(CFG_PARAM_FRAME_RATE)).intValue());
         }
 
         if (params.containsKey(CFG_PARAM_STEPS_PER_FRAME)) {
             logger.debug("Steps per Frame configured: " + params.get(CFG_PARAM_STEPS_PER_FRAME));
-            room.setStepsPerFrame(new Integer((String)params.get(CFG_PARAM_STEPS_PER_FRAME)).intValue());
+            config.setStepsPerFrame(new Integer((String)params.get(CFG_PARAM_STEPS_PER_FRAME)).intValue());
+        }
+
+        if (params.containsKey(CFG_PARAM_MAX_CATCH_UP_STEPS)) {
+            logger.debug("Max catch-up steps configured: " + params.get(CFG_PARAM_MAX_CATCH_UP_STEPS));
+            config.setMaxCatchUpSteps(new Integer((String)params.get(CFG_PARAM_MAX_CATCH_UP_STEPS)).intValue());
         }
 
-        return room;
+        if (params.containsKey(CFG_PARAM_WAIT_STRATEGY)) {
+            logger.debug("Wait strategy configured: " + params.get(CFG_PARAM_WAIT_STRATEGY));
+            long spinMicros = 0;
+            if (params.containsKey(CFG_PARAM_SPIN_MICROS)) {
+                spinMicros = new Long((String)params.get(CFG_PARAM_SPIN_MICROS)).longValue();
+            }
+            try {
+                config.setWaitStrategy(new WaitStrategyFactory().createWaitStrategy(
+                        (String)params.get(CFG_PARAM_WAIT_STRATEGY), spinMicros));
+            } catch (IllegalArgumentException e) {
+                logger.warn(e.getMessage() + ", keeping the default.");
+            }
+        }
+
+        if (params.containsKey(CFG_PARAM_SCHEDULER_THREADS)) {
+            logger.debug("Scheduler threads configured: " + params.get(CFG_PARAM_SCHEDULER_THREADS));
+            config.setSchedulerThreads(new Integer((String)params.get(CFG_PARAM_SCHEDULER_THREADS)).intValue());
+        }
+
+        if (params.containsKey(CFG_PARAM_RING_BUFFER_SIZE)) {
+            logger.debug("Ring buffer size configured: " + params.get(CFG_PARAM_RING_BUFFER_SIZE));
+            config.setRingBufferSize(new Integer((String)params.get(CFG_PARAM_RING_BUFFER_SIZE)).intValue());
+        }
+
+        if (params.containsKey(CFG_PARAM_RING_BUFFER_FULL_POLICY)) {
+            logger.debug("Ring buffer full policy configured: " + params.get(CFG_PARAM_RING_BUFFER_FULL_POLICY));
+            String policy = (String)params.get(CFG_PARAM_RING_BUFFER_FULL_POLICY);
+            if (policy.equalsIgnoreCase("block")) {
+                config.setRingBufferFullPolicy(EventRingBuffer.FullPolicy.BLOCK);
+            } else if (policy.equalsIgnoreCase("defer")) {
+                config.setRingBufferFullPolicy(EventRingBuffer.FullPolicy.DEFER_UPDATES);
+            } else {
+                logger.warn("Unknown ring buffer full policy '" + policy + "', keeping the default.");
+            }
+        }
+
+        if (params.containsKey(CFG_PARAM_POSITION_GRID)) {
+            logger.debug("Position grid configured: " + params.get(CFG_PARAM_POSITION_GRID));
+            config.setPositionGrid(new Integer((String)params.get(CFG_PARAM_POSITION_GRID)).intValue());
+        }
+
+        if (params.containsKey(CFG_PARAM_INTEREST_CELL_SIZE)) {
+            logger.debug("Interest cell size configured: " + params.get(CFG_PARAM_INTEREST_CELL_SIZE));
+            config.setInterestCellSize(new Integer((String)params.get(CFG_PARAM_INTEREST_CELL_SIZE)).intValue());
+        }
+
+        if (params.containsKey(CFG_PARAM_UPDATE_BUDGET)) {
+            logger.debug("Update budget configured: " + params.get(CFG_PARAM_UPDATE_BUDGET));
+            config.setUpdateBudget(new Integer((String)params.get(CFG_PARAM_UPDATE_BUDGET)).intValue());
+        }
+
+        if (params.containsKey(CFG_PARAM_UPDATE_BUDGET_BYTES)) {
+            logger.debug("Update budget in bytes configured: " + params.get(CFG_PARAM_UPDATE_BUDGET_BYTES));
+            config.setUpdateBudgetBytes(new Integer((String)params.get(CFG_PARAM_UPDATE_BUDGET_BYTES)).intValue());
+        }
+
+        if (params.containsKey(CFG_PARAM_DETAIL_LEVELS)) {
+            logger.debug("Levels of detail configured: " + params.get(CFG_PARAM_DETAIL_LEVELS));
+            config.setDetailLevels(new Integer((String)params.get(CFG_PARAM_DETAIL_LEVELS)).intValue());
+        }
+
+        if (params.containsKey(CFG_PARAM_DETAIL_FRAME_DIVISOR)) {
+            logger.debug("Level of detail frame divisor configured: " + params.get(CFG_PARAM_DETAIL_FRAME_DIVISOR));
+            config.setDetailFrameDivisor(new Integer((String)params.get(CFG_PARAM_DETAIL_FRAME_DIVISOR)).intValue());
+        }
+
+        if (params.containsKey(CFG_PARAM_DETAIL_GRID_FACTOR)) {
+            logger.debug("Level of detail grid factor configured: " + params.get(CFG_PARAM_DETAIL_GRID_FACTOR));
+            config.setDetailGridFactor(new Integer((String)params.get(CFG_PARAM_DETAIL_GRID_FACTOR)).intValue());
+        }
+
+        if (params.containsKey(CFG_PARAM_EXTRAPOLATION)) {
+            logger.debug("Extrapolation mode configured: " + params.get(CFG_PARAM_EXTRAPOLATION));
+            config.setExtrapolation(Boolean.parseBoolean((String)params.get(CFG_PARAM_EXTRAPOLATION)));
+        }
+
+        if (params.containsKey(CFG_PARAM_VELOCITY_THRESHOLD)) {
+            logger.debug("Velocity threshold configured: " + params.get(CFG_PARAM_VELOCITY_THRESHOLD));
+            config.setVelocityThreshold(new Integer((String)params.get(CFG_PARAM_VELOCITY_THRESHOLD)).intValue());
+        }
+
+        if (params.containsKey(CFG_PARAM_FRAME_STAMPS)) {
+            logger.debug("Frame stamps configured: " + params.get(CFG_PARAM_FRAME_STAMPS));
+            config.setFrameStamps(Boolean.parseBoolean((String)params.get(CFG_PARAM_FRAME_STAMPS)));
+        }
+
+        registry.configure(config);
+
+        return registry;
     }
 
-}
\ No newline at end of file
+}
@@ -20,19 +20,15 @@ package com.lightstreamer.examples.roomball_demo.adapters;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import ua_parser.Client;
-import ua_parser.Parser;
-
 import com.lightstreamer.adapters.metadata.LiteralBasedProvider;
 import com.lightstreamer.interfaces.metadata.CreditsException;
 import com.lightstreamer.interfaces.metadata.NotificationException;
@@ -48,8 +44,6 @@ public class RoomBallMetaAdapter extends LiteralBasedProvider {
     
     private static final String FIELD_REMOTE_IP = "REMOTE_IP";
 
-    private static final String CFG_PARAM_JMX_PORT = "jmxPort";
-
     private static final String ITEM_NAME_PREFIX_BAND = "My_Band_";
 
     private static final String ERROR = "Error";
@@ -61,6 +55,24 @@ public class RoomBallMetaAdapter extends LiteralBasedProvider {
     private static final String WORLD_SIZE_Y = "world_size_y";
     
     private static final String MAX_PLAYERS = "max_players";
+    
+    private static final String MAX_ROOMS = "max_rooms";
+
+    private static final String MAX_COMMANDS_PER_SECOND = "max_commands_per_second";
+
+    private static final String COMMANDS_BURST = "commands_burst";
+
+    private static final String MAX_CHAT_PER_SECOND = "max_chat_per_second";
+
+    private static final String CHAT_BURST = "chat_burst";
+
+    private static final String NOTIFY_RATE_LIMIT = "notify_rate_limit";
+
+    private static final String DELIVERY_LANES = "delivery_lanes";
+
+    private static final String USER_AGENT_CACHE_SIZE = "user_agent_cache_size";
+
+    private static final String ASYNC_USER_AGENT = "async_user_agent";
 
     private static Logger logger;
 
@@ -71,84 +83,103 @@ public class RoomBallMetaAdapter extends LiteralBasedProvider {
     public static Logger tracer = null;
 
     /**
-     * Keeps the client context information supplied by Lightstreamer on the
-     * new session notifications.
-     * Session information is needed to pass the IP to logging purpose.
-     * Map of sessionInfo indexed by sessionID.
+     * Keeps the record of each session, created on the new session
+     * notification; indexed by sessionID.
      */
-    private final ConcurrentHashMap<String,Map<String,String>> sessions =
-            new ConcurrentHashMap<String,Map<String,String>>();
+    private final ConcurrentHashMap<String, SessionRecord> sessions =
+            new ConcurrentHashMap<String, SessionRecord>();
 
     /**
-     * map of player's names indexed by session id.
-     * There can be only one player per session.
+     * The names taken by the players, regardless of the case.
      */
-    private final ConcurrentHashMap<String, String> nicksns =
-            new ConcurrentHashMap<String, String>();
+    private final NicknameIndex nicknames = new NicknameIndex();
 
     /**
-     * map of player's user agent indexed by session id
+     * The registry of the rooms where the players live
      */
-    private final ConcurrentHashMap<String, String> usrAgnts =
-            new ConcurrentHashMap<String, String>();
+    private RoomRegistry registry;
 
     /**
-     * The room where the players live
+     * Max number of players in each room of Room-Ball demo
      */
-    private Room room;
+    private static int max_num_of_players = 200;
+    
+    /**
+     * The lanes used to deliver the messages to the Room; the messages of
+     * each session are delivered in order, on the same lane.
+     */
+    private DeliveryLanes deliveryLanes;
 
     /**
-     * Max number of players in the room of Room-Ball demo
+     * The labels of the user agents, parsed by a parser shared by all the
+     * sessions and loaded on init.
      */
-    private static int max_num_of_players = 200;
-    
+    private UserAgentLabels userAgentLabels;
+
     /**
-     * The Executor used to deliver the messages to the Room
+     * Limits on the key commands and the chat messages of each session,
+     * enforced before the messages are queued for delivery; a rate of 0
+     * means no limit.
      */
-    private final Executor messageDeliveryExecutor;
+    private int maxCommandsPerSecond = 60;
+    private int commandsBurst = 60;
+    private int maxChatPerSecond = 2;
+    private int chatBurst = 5;
 
-    private int jmxPort = 9999;
+    /**
+     * Whether the client is notified, through a CreditsException, of the
+     * messages dropped because over the limits.
+     */
+    private boolean notifyRateLimit = false;
+
+    /**
+     * Messages dropped because over the limits, overall.
+     */
+    private final AtomicLong droppedCommands = new AtomicLong();
+    private final AtomicLong droppedChat = new AtomicLong();
 
     // Inner Classes -----------------------------------------------------------
 
     class NotifyChatMessageTask implements Runnable {
 
-        private final String sessionID;
+        private final SessionRecord record;
         private final String message;
 
-        public NotifyChatMessageTask(String sessionID, String message) {
+        public NotifyChatMessageTask(SessionRecord record, String message) {
             super();
-            this.sessionID = sessionID;
+            this.record = record;
             this.message = message;
         }
 
         @Override
         public void run() {
-            notifyChatMessage(sessionID, message);
+            notifyChatMessage(record, message);
         }
     }
 
     class NotifyCommandTask implements Runnable {
 
-        private final String sessionID;
+        private final SessionRecord record;
         private final String message;
+        private final long receivedAt;
 
-        public NotifyCommandTask(String sessionID, String message) {
+        public NotifyCommandTask(SessionRecord record, String message, long receivedAt) {
             super();
-            this.sessionID = sessionID;
+            this.record = record;
             this.message = message;
+            this.receivedAt = receivedAt;
         }
 
         @Override
         public void run() {
-            notifyCommand(sessionID, message);
+            InputLatency.QUEUE.record(System.nanoTime() - receivedAt);
+            notifyCommand(record, message, receivedAt);
         }
     }
 
     // Constructor -------------------------------------------------------------
 
     public RoomBallMetaAdapter() {
-        messageDeliveryExecutor = Executors.newSingleThreadExecutor();
     }
 
     // Public Methods ----------------------------------------------------------
@@ -179,16 +210,61 @@ public class RoomBallMetaAdapter extends LiteralBasedProvider {
         }
         
         if (params.containsKey(MAX_PLAYERS)) {
-            logger.info("World size (y) configured: " + params.get(MAX_PLAYERS));
+            logger.info("Max players per room configured: " + params.get(MAX_PLAYERS));
             max_num_of_players = new Integer((String)params.get(MAX_PLAYERS)).intValue();
         }
         
-        room = Box2DRoom.getInstance(world_size_x, world_size_y);
+        registry = RoomRegistry.getInstance(world_size_x, world_size_y);
         
-        if (params.containsKey(CFG_PARAM_JMX_PORT)) {
-            this.jmxPort = new Integer((String)params.get(CFG_PARAM_JMX_PORT)).intValue();
+        if (params.containsKey(MAX_ROOMS)) {
+            logger.info("Max rooms configured: " + params.get(MAX_ROOMS));
+            registry.setMaxRooms(new Integer((String)params.get(MAX_ROOMS)).intValue());
+        }
+
+        int lanes = Runtime.getRuntime().availableProcessors();
+        if (params.containsKey(DELIVERY_LANES)) {
+            logger.info("Delivery lanes configured: " + params.get(DELIVERY_LANES));
+            lanes = new Integer((String)params.get(DELIVERY_LANES)).intValue();
+        }
+        deliveryLanes = new DeliveryLanes(lanes);
+
+        int userAgentCacheSize = 1000;
+        if (params.containsKey(USER_AGENT_CACHE_SIZE)) {
+            logger.info("User Agent cache size configured: " + params.get(USER_AGENT_CACHE_SIZE));
+            userAgentCacheSize = new Integer((String)params.get(USER_AGENT_CACHE_SIZE)).intValue();
+        }
+
+        boolean asyncUserAgent = false;
+        if (params.containsKey(ASYNC_USER_AGENT)) {
+            logger.info("Asynchronous User Agent parsing configured: " + params.get(ASYNC_USER_AGENT));
+            asyncUserAgent = Boolean.parseBoolean((String)params.get(ASYNC_USER_AGENT));
+        }
+        userAgentLabels = new UserAgentLabels(userAgentCacheSize, asyncUserAgent);
+
+        if (params.containsKey(MAX_COMMANDS_PER_SECOND)) {
+            logger.info("Max commands per second configured: " + params.get(MAX_COMMANDS_PER_SECOND));
+            maxCommandsPerSecond = new Integer((String)params.get(MAX_COMMANDS_PER_SECOND)).intValue();
+        }
+
+        if (params.containsKey(COMMANDS_BURST)) {
+            logger.info("Commands burst configured: " + params.get(COMMANDS_BURST));
+            commandsBurst = new Integer((String)params.get(COMMANDS_BURST)).intValue();
+        }
+
+        if (params.containsKey(MAX_CHAT_PER_SECOND)) {
+            logger.info("Max chat messages per second configured: " + params.get(MAX_CHAT_PER_SECOND));
+            maxChatPerSecond = new Integer((String)params.get(MAX_CHAT_PER_SECOND)).intValue();
+        }
+
+        if (params.containsKey(CHAT_BURST)) {
+            logger.info("Chat burst configured: " + params.get(CHAT_BURST));
+            chatBurst = new Integer((String)params.get(CHAT_BURST)).intValue();
+        }
+
+        if (params.containsKey(NOTIFY_RATE_LIMIT)) {
+            logger.info("Rate limit notification configured: " + params.get(NOTIFY_RATE_LIMIT));
+            notifyRateLimit = Boolean.parseBoolean((String)params.get(NOTIFY_RATE_LIMIT));
         }
-        logger.info("JMX Port:" + this.jmxPort);
     }
 
     @Override
@@ -202,29 +278,48 @@ public class RoomBallMetaAdapter extends LiteralBasedProvider {
     }
     
     @Override
-    synchronized public void notifySessionClose(String sessionID) throws NotificationException {
+    public void notifySessionClose(String sessionID) throws NotificationException {
 
-        sessions.remove(sessionID);
-        usrAgnts.remove(sessionID);
+        SessionRecord record = sessions.remove(sessionID);
+        if (record == null) {
+            logger.warn("Not exists " + sessionID + " in sessions -> room.removePlayer not called!");
+            return;
+        }
 
-        String deadmanwalking = nicksns.remove(sessionID);
-        if (deadmanwalking != null) {
+        if (record.droppedCommands.get() > 0 || record.droppedChat.get() > 0) {
+            tracer.info("Session '" + sessionID + "' got " + record.droppedCommands.get() + " commands and "
+                    + record.droppedChat.get() + " chat messages dropped because over the limits ("
+                    + droppedCommands.get() + " commands and " + droppedChat.get() + " chat messages overall).");
+        }
+
+        String deadmanwalking;
+        Room room;
+        synchronized (record) {
+            room = record.getRoom();
+            deadmanwalking = record.close();
+        }
+        if (deadmanwalking != null && room != null) {
+            nicknames.release(deadmanwalking, sessionID);
             try {
                 room.removePlayer(deadmanwalking);
             } catch (Exception e) {
                 logger.warn(e);
             }
+            room.releasePlayer();
+            registry.releaseRoom(room);
         } else {
-        	logger.warn("Not exists " + sessionID + " in nicksns -> room.removePlayer not called!");
+            logger.debug("No player for session " + sessionID + " -> room.removePlayer not called.");
         }
     }
 
     @SuppressWarnings({"rawtypes", "unchecked" })
     @Override
-    synchronized public void notifyNewSession(String user, String sessionID, Map sessionInfo) throws CreditsException, NotificationException {
+    public void notifyNewSession(String user, String sessionID, Map sessionInfo) throws CreditsException, NotificationException {
 
-        sessions.put(sessionID, sessionInfo);
-        addUserAgent(sessionID, sessionInfo, usrAgnts);
+        SessionRecord record = new SessionRecord(sessionID, (String) sessionInfo.get(FIELD_REMOTE_IP),
+                new TokenBucket(maxCommandsPerSecond, commandsBurst), new TokenBucket(maxChatPerSecond, chatBurst));
+        addUserAgent(record, sessionInfo);
+        sessions.put(sessionID, record);
     }
 
     @Override
@@ -236,7 +331,7 @@ public class RoomBallMetaAdapter extends LiteralBasedProvider {
         String itemName = tables[0].getId();
         if ( itemName.startsWith(ITEM_NAME_PREFIX_BAND) ) {
             String usr = itemName.substring(ITEM_NAME_PREFIX_BAND.length());
-            room.addPollsBandwidth(sessionID, itemName, usr, jmxPort);
+            registry.addPollsBandwidth(sessionID, itemName, usr);
         }
     }
 
@@ -248,25 +343,25 @@ public class RoomBallMetaAdapter extends LiteralBasedProvider {
         // As a consequence, we won't introduce blocking operations here,
         // hence we can proceed inline
 
+        long receivedAt = System.nanoTime();
+
         try {
             if (message == null) {
                 return null;
             }
 
-            if (sessions.get(sessionID) == null) {
+            final SessionRecord record = sessions.get(sessionID);
+            if (record == null) {
                 logger.warn("Message received from not-existent session '" + sessionID + "'.");
                 return null;
             }
 
-            if (message.startsWith("n|") ) {
+            int type = InputParser.getType(message);
+            if (type == InputParser.TYPE_LOGIN) {
 
+                final String roomId = getRoomIdFrom(message);
                 message = removeTypeFrom(message);
 
-                if (nicksns.size() >= max_num_of_players) {
-                    logger.warn("Unable to add player: Room is overcrowded.");
-                    throw new CreditsException(-2700, "Too many users. Please try again.");
-                }
-
                 final String proposedName = getNickNameFrom(message);
                 if (proposedName.equals(ERROR)) {
                     throw new CreditsException(-2710, "Error logging in.");
@@ -280,53 +375,86 @@ public class RoomBallMetaAdapter extends LiteralBasedProvider {
                     throw new CreditsException(-1, "Srsly? A ball?");
                 }
 
-                if (nicksns.containsKey(sessionID)) {
-                    // duplicated message; it should be avoided when possible
-                    String actualNickName = nicksns.get(sessionID);
+                // synchronized login, on the session only
+                String recommendedName;
 
-                    if (!actualNickName.equalsIgnoreCase(proposedName)) {
-                        throw new CreditsException(-2720, "Notifying nickname " + actualNickName + " to the client", actualNickName);
-                        // brings back to the case where the name has been
-                        // changed, causing the client to receive a non
-                        // blocking error.
+                synchronized(record) {
+                    if (record.isClosed()) {
+                        return CompletableFuture.completedFuture(null);
                     }
-                }
 
-                // synchronized login
-                String recommendedName;
-                
-                synchronized(nicksns) {
-                	recommendedName = getRecommendedName(proposedName, nicksns.values());
-                	
-	                try {
-	                    String ip = getIp(sessionID, sessions);
-	                    if (ip.isEmpty()) {
-	                        logger.warn("New player '" + recommendedName + "' message received from non-existent session '" + sessionID + "'.");
-	                    } else {
-	                        tracer.info("New player '" + recommendedName + "' from ip " + ip );
-	                    }
-	                	
-	                	String userAgent = ( usrAgnts.get(sessionID) != null ? usrAgnts.get(sessionID) : "undetected");
-	                    room.addPlayer(recommendedName, userAgent);
-	                    nicksns.put(sessionID, recommendedName);
-	                } catch (RoomException e) {
-	                    logger.warn("Unable to add player: " + e.getMessage());
-	                } catch (Exception e) {
-	                    logger.warn("Message not well formatted, skipped.", e);
-	                }
+                    String actualNickName = record.getNickname();
+                    if (actualNickName != null) {
+                        // duplicated message; it should be avoided when possible
+                        if (!actualNickName.equalsIgnoreCase(proposedName)) {
+                            throw new CreditsException(-2720, "Notifying nickname " + actualNickName + " to the client", actualNickName);
+                            // brings back to the case where the name has been
+                            // changed, causing the client to receive a non
+                            // blocking error.
+                        }
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    // the room is held by the player until it leaves
+                    final Room room;
+                    try {
+                        room = registry.acquireRoom(roomId);
+                    } catch (RoomException e) {
+                        logger.warn("Unable to add player: " + e.getMessage());
+                        throw new CreditsException(-2730, "Room not available. Please try another one.");
+                    }
+
+                    if (!room.reservePlayer(max_num_of_players)) {
+                        registry.releaseRoom(room);
+                        logger.warn("Unable to add player: Room is overcrowded.");
+                        throw new CreditsException(-2700, "Too many users. Please try again.");
+                    }
+
+                    recommendedName = claimRecommendedName(proposedName, sessionID);
+
+                    String ip = record.getIp();
+                    if (ip.isEmpty()) {
+                        logger.warn("New player '" + recommendedName + "' message received from session '" + sessionID + "' with no IP.");
+                    } else {
+                        tracer.info("New player '" + recommendedName + "' from ip " + ip );
+                    }
+
+                    // the name is taken right away, while the player is
+                    // added asynchronously by the room; on failure the
+                    // name and the room are released
+                    record.setPlayer(recommendedName, room);
+                    final String addedName = recommendedName;
+                    room.addPlayer(recommendedName, record.getUserAgent()).whenComplete((keyState, failure) -> {
+                        if (failure != null) {
+                            logger.warn("Unable to add player: " + failure.getMessage());
+                            if (record.clearPlayer(addedName)) {
+                                nicknames.release(addedName, sessionID);
+                                room.releasePlayer();
+                                registry.releaseRoom(room);
+                            }
+                        } else {
+                            record.setKeyState(addedName, keyState);
+                        }
+                    });
                 }
-                
+
                 if (!recommendedName.equalsIgnoreCase(proposedName)) {
                     throw new CreditsException(-2720, "Notifying nickname " + recommendedName + " to the client", recommendedName);
                     // brings back to the case where the name has been
                     // changed, causing the client to receive a non
                     // blocking error.
                 }
-            } else if ( message.startsWith("m|") ) {
+            } else if (type == InputParser.TYPE_CHAT) {
+                if (!checkQuota(record, type, 1)) {
+                    return CompletableFuture.completedFuture(null);
+                }
                 message = removeTypeFrom(message);
-                messageDeliveryExecutor.execute(new NotifyChatMessageTask(sessionID, message));
+                deliveryLanes.execute(sessionID, new NotifyChatMessageTask(record, message));
             } else {
-                messageDeliveryExecutor.execute(new NotifyCommandTask(sessionID, message));
+                if (!checkQuota(record, type, InputParser.countCommands(message))) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                deliveryLanes.execute(sessionID, new NotifyCommandTask(record, message, receivedAt));
             }
         } catch (CreditsException e) {
             throw e;
@@ -340,115 +468,131 @@ public class RoomBallMetaAdapter extends LiteralBasedProvider {
 
     // Private Methods ---------------------------------------------------------
 
-    synchronized private void notifyChatMessage(String sessionID, String message) {
-        String playerName = nicksns.get(sessionID);
-        if (playerName == null) {
+    /**
+     * Consumes the quota of the session for the given message.
+     *
+     * @return whether the message is within the limits.
+     * @throws CreditsException if the message is over the limits and the
+     * client has to be notified.
+     */
+    private boolean checkQuota(SessionRecord record, int type, int count) throws CreditsException {
+        long now = System.nanoTime();
+        if (type == InputParser.TYPE_CHAT) {
+            if (record.chat.tryConsume(count, now)) {
+                return true;
+            }
+            record.droppedChat.incrementAndGet();
+            droppedChat.incrementAndGet();
+        } else {
+            if (record.commands.tryConsume(count, now)) {
+                return true;
+            }
+            record.droppedCommands.addAndGet(count);
+            droppedCommands.addAndGet(count);
+        }
+
+        if (notifyRateLimit) {
+            throw new CreditsException(-2740, "Too many messages. Please slow down.");
+        }
+        return false;
+    }
+
+    private void notifyChatMessage(SessionRecord record, String message) {
+        String playerName;
+        Room room;
+        synchronized (record) {
+            playerName = record.getNickname();
+            room = record.getRoom();
+        }
+        if (playerName == null || room == null) {
             // the message might have come too early; we cannot fulfill it
-            logger.warn("Received chat message from incomplete player (ip: " + getIp(sessionID, sessions) + ").");
+            logger.warn("Received chat message from incomplete player (ip: " + record.getIp() + ").");
             return;
         }
-        tracer.info("RoomBall Chat Message from '" + playerName + "' (ip: " + getIp(sessionID, sessions) + "), session '"+sessionID+"': " + message);
+        tracer.info("RoomBall Chat Message from '" + playerName + "' (ip: " + record.getIp() + "), session '" + record.getSessionID() + "': " + message);
 
         room.updatePlayerMsg(playerName, message);
     }
 
-    synchronized private void notifyCommand(String sessionID, String message) {
-        String playerName = nicksns.get(sessionID);
-        if (playerName == null) {
+    private void notifyCommand(SessionRecord record, String message, long receivedAt) {
+        KeyState keyState = record.getKeyState();
+        if (keyState == null) {
             // the message might have come too early; we cannot fulfill it
-            logger.warn("Received command message from incomplete player (ip: " + getIp(sessionID, sessions) + ").");
+            logger.warn("Received command message from incomplete player (ip: " + record.getIp() + ").");
             return;
         }
-        tracer.debug("Received command message from player '" + playerName + "' (ip: " + getIp(sessionID, sessions) + ").");
+        tracer.debug("Received command message from session '" + record.getSessionID() + "' (ip: " + record.getIp() + ").");
 
-        room.dispatchCommand(playerName, message);
-        logger.debug("Input command from user " + playerName + ": " + message);
+        // applied right away: the engine thread reads the key state on every
+        // step, hence commands cost no task and no hand-off
+        long batchSpan = keyState.applyCommands(message, InputParser.getCommandsStart(message));
+        if (batchSpan < 0) {
+            logger.debug("Unknown command received.");
+            return;
+        }
+        // the first command of a batch waited on the client for the batch
+        keyState.trackInput(receivedAt - TimeUnit.MILLISECONDS.toNanos(batchSpan), System.nanoTime());
+        logger.debug("Input command from session " + record.getSessionID() + ": " + message);
     }
 
     @SuppressWarnings("rawtypes")
-    private void addUserAgent(String sessionID, Map sessionInfo, Map<String, String> usrAgnts) {
+    private void addUserAgent(final SessionRecord record, Map sessionInfo) {
         String ua = (String) sessionInfo.get(FIELD_USER_AGENT);
         if (ua == null) {
-            logger.info("User Agent not present for session " + sessionID);
+            logger.info("User Agent not present for session " + record.getSessionID());
             return;
         }
 
         logger.info("User Agent: " + ua);
-        Parser uaParser = new Parser();
-        Client c = uaParser.parse(ua);
-        String userAgent = ( c.userAgent.family.equals("Android") ?
-            c.userAgent.family + " Browser on " + c.os.family :
-            c.userAgent.family + " on " + c.os.family);
-
-        usrAgnts.put(sessionID, userAgent);
-        logger.info("Saved: " + userAgent + ", for " + sessionID);
+        userAgentLabels.resolve(ua, userAgent -> {
+            record.setUserAgent(userAgent);
+            logger.info("Saved: " + userAgent + ", for " + record.getSessionID());
+        });
     }
 
     private String removeTypeFrom(String message) {
-        String newMsg;
-        try {
-            newMsg = message.split("\\|")[1];
-        } catch (ArrayIndexOutOfBoundsException aiobe) {
-            // let's assume that the message ends with | to carry an empty value
-            newMsg = "";
-        }
-        return newMsg;
+        // a message ending with | carries an empty value
+        return InputParser.getField(message, 1);
     }
 
-    private boolean isNaN(String str) {
-        if (str.charAt(0) == '-') {
-          str = str.substring(1);
+    /**
+     * Gets the optional room id from a login message ("n|nickname|roomId").
+     * @return the requested room id, or the default room id if not specified
+     */
+    private String getRoomIdFrom(String message) {
+        String roomId = InputParser.getField(message, 2);
+        if (!roomId.isEmpty()) {
+            return roomId;
         }
+        return RoomRegistry.DEFAULT_ROOM_ID;
+    }
 
-        int i=0;
+    private boolean isNaN(String str) {
+        int i = (str.charAt(0) == '-' ? 1 : 0);
         while (i<str.length() && Character.isDigit(str.charAt(i))) {
           i++;
         }
         return i != str.length();
     }
 
-    private String getIp(String sessionID, Map<String,Map<String,String>> sessions) {
-        String ip = "";
-
-        Map<String,String> sessionInfo = sessions.get(sessionID);
-        if (sessionInfo == null) {
-            logger.warn("Unable to retrieve IP: session '" + sessionID + "' does not exist!");
-        } else {
-            ip =  sessionInfo.get(FIELD_REMOTE_IP);
-        }
-        return ip;
-    }
-
     private String getNickNameFrom(String message) {
         final String nickname = message;
         return nickname;
     }
 
     /**
-     * Compute a name that is not already present in the name list.
-     * The returned name is based on the proposed one.
+     * Compute a name that is not already taken and take it for the given
+     * session. The returned name is based on the proposed one.
      * @param proposedName The proposed name
-     * @param namesNotAllowed The set of names form with the computed name must be
-     * different.
-     * @return a name not preset in namesNotAllowed
+     * @param sessionID The session taking the name
+     * @return a name just taken by sessionID
      */
-    private String getRecommendedName(String proposedName, Collection<String> namesNotAllowed) {
+    private String claimRecommendedName(String proposedName, String sessionID) {
         if (proposedName.startsWith(Ball.NAME_BALL)) {
             proposedName = "NotABall";
         }
 
-        String recommendedName;
-        if (!namesNotAllowed.contains(proposedName) ){
-            recommendedName = proposedName;
-        } else {
-            int ik = 2;
-            while ( namesNotAllowed.contains(proposedName+ik)  ){
-                ik++;
-            }
-
-            recommendedName = proposedName+ik;
-        }
-        return recommendedName;
+        return nicknames.claim(proposedName, sessionID);
     }
 
 }
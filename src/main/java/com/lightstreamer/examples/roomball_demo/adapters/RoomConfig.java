@@ -0,0 +1,231 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+/**
+ * The settings shared by all the rooms hosted by the RoomRegistry.
+ * Supplied by the Data Adapter configuration; rooms pick them up when they
+ * are created.
+ */
+public class RoomConfig {
+
+    public static final int DEFAULT_FRAME_RATE = 10;
+    public static final int DEFAULT_STEPS_PER_FRAME = 1;
+    public static final int DEFAULT_MAX_CATCH_UP_STEPS = 5;
+    public static final int DEFAULT_RING_BUFFER_SIZE = 4096;
+    public static final int DEFAULT_DETAIL_LEVELS = 2;
+    public static final int DEFAULT_DETAIL_FRAME_DIVISOR = 2;
+    public static final int DEFAULT_DETAIL_GRID_FACTOR = 4;
+    public static final int MAX_DETAIL_LEVELS = 8;
+    public static final int MAX_DETAIL_FRAME_DIVISOR = 16;
+    public static final int MAX_DETAIL_GRID_FACTOR = 16;
+
+    private int frameRate = DEFAULT_FRAME_RATE;
+
+    private int stepsPerFrame = DEFAULT_STEPS_PER_FRAME;
+
+    private int maxCatchUpSteps = DEFAULT_MAX_CATCH_UP_STEPS;
+
+    private WaitStrategy waitStrategy = new WaitStrategyFactory.SleepWaitStrategy();
+
+    private int schedulerThreads = Runtime.getRuntime().availableProcessors();
+
+    private int ringBufferSize = DEFAULT_RING_BUFFER_SIZE;
+
+    private EventRingBuffer.FullPolicy ringBufferFullPolicy = EventRingBuffer.FullPolicy.DEFER_UPDATES;
+
+    private int positionGrid = AbstractElement.DEFAULT_POSITION_GRID;
+
+    /**
+     * Size of the cells of the interest grid; 0 means no cell items.
+     */
+    private int interestCellSize = 0;
+
+    /**
+     * Max number of updates published on each frame; 0 means no limit.
+     */
+    private int updateBudget = 0;
+
+    /**
+     * Max number of bytes of the updates published on each frame;
+     * 0 means no limit.
+     */
+    private int updateBudgetBytes = 0;
+
+    /**
+     * Number of reduced levels of detail published besides the full one;
+     * each level is published every detailFrameDivisor frames of the level
+     * above, on a grid detailGridFactor times coarser.
+     */
+    private int detailLevels = DEFAULT_DETAIL_LEVELS;
+
+    private int detailFrameDivisor = DEFAULT_DETAIL_FRAME_DIVISOR;
+
+    private int detailGridFactor = DEFAULT_DETAIL_GRID_FACTOR;
+
+    /**
+     * Whether velocities are published, for clients that extrapolate the
+     * motion, and positions only when velocities change.
+     */
+    private boolean extrapolation = false;
+
+    private int velocityThreshold = AbstractElement.DEFAULT_VELOCITY_THRESHOLD;
+
+    /**
+     * Whether every update carries the number and the timestamp of its frame.
+     */
+    private boolean frameStamps = false;
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    public void setFrameRate(int frameRate) {
+        this.frameRate = frameRate;
+    }
+
+    public int getStepsPerFrame() {
+        return stepsPerFrame;
+    }
+
+    public void setStepsPerFrame(int stepsPerFrame) {
+        this.stepsPerFrame = stepsPerFrame;
+    }
+
+    public int getMaxCatchUpSteps() {
+        return maxCatchUpSteps;
+    }
+
+    public void setMaxCatchUpSteps(int maxCatchUpSteps) {
+        this.maxCatchUpSteps = Math.max(1, maxCatchUpSteps);
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int getSchedulerThreads() {
+        return schedulerThreads;
+    }
+
+    public void setSchedulerThreads(int schedulerThreads) {
+        this.schedulerThreads = Math.max(1, schedulerThreads);
+    }
+
+    public int getRingBufferSize() {
+        return ringBufferSize;
+    }
+
+    public void setRingBufferSize(int ringBufferSize) {
+        this.ringBufferSize = ringBufferSize;
+    }
+
+    public EventRingBuffer.FullPolicy getRingBufferFullPolicy() {
+        return ringBufferFullPolicy;
+    }
+
+    public void setRingBufferFullPolicy(EventRingBuffer.FullPolicy ringBufferFullPolicy) {
+        this.ringBufferFullPolicy = ringBufferFullPolicy;
+    }
+
+    public int getPositionGrid() {
+        return positionGrid;
+    }
+
+    public void setPositionGrid(int positionGrid) {
+        this.positionGrid = Math.max(1, positionGrid);
+    }
+
+    public int getInterestCellSize() {
+        return interestCellSize;
+    }
+
+    public void setInterestCellSize(int interestCellSize) {
+        this.interestCellSize = Math.max(0, interestCellSize);
+    }
+
+    public int getUpdateBudget() {
+        return updateBudget;
+    }
+
+    public void setUpdateBudget(int updateBudget) {
+        this.updateBudget = Math.max(0, updateBudget);
+    }
+
+    public int getUpdateBudgetBytes() {
+        return updateBudgetBytes;
+    }
+
+    public void setUpdateBudgetBytes(int updateBudgetBytes) {
+        this.updateBudgetBytes = Math.max(0, updateBudgetBytes);
+    }
+
+    public int getDetailLevels() {
+        return detailLevels;
+    }
+
+    public void setDetailLevels(int detailLevels) {
+        this.detailLevels = Math.max(0, Math.min(MAX_DETAIL_LEVELS, detailLevels));
+    }
+
+    public int getDetailFrameDivisor() {
+        return detailFrameDivisor;
+    }
+
+    public void setDetailFrameDivisor(int detailFrameDivisor) {
+        this.detailFrameDivisor = Math.max(1, Math.min(MAX_DETAIL_FRAME_DIVISOR, detailFrameDivisor));
+    }
+
+    public int getDetailGridFactor() {
+        return detailGridFactor;
+    }
+
+    public void setDetailGridFactor(int detailGridFactor) {
+        this.detailGridFactor = Math.max(1, Math.min(MAX_DETAIL_GRID_FACTOR, detailGridFactor));
+    }
+
+    public boolean isExtrapolation() {
+        return extrapolation;
+    }
+
+    public void setExtrapolation(boolean extrapolation) {
+        this.extrapolation = extrapolation;
+    }
+
+    public int getVelocityThreshold() {
+        return velocityThreshold;
+    }
+
+    public void setVelocityThreshold(int velocityThreshold) {
+        this.velocityThreshold = Math.max(0, velocityThreshold);
+    }
+
+    public boolean isFrameStamps() {
+        return frameStamps;
+    }
+
+    public void setFrameStamps(boolean frameStamps) {
+        this.frameStamps = frameStamps;
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+/**
+ * The parsed name of an item listing the elements of a room.
+ * Supported names are:
+ * "Players_list", for the default room,
+ * "Players_list_<roomId>", for the room with that id,
+ * "Players_list_lod<n>" or "Players_list_<roomId>_lod<n>", for the
+ * reduced level of detail n of the room, and
+ * "Players_list_cell_<x>_<y>" or "Players_list_<roomId>_cell_<x>_<y>",
+ * for a single cell of the interest grid of the room.
+ */
+class RoomItemName {
+
+    public static final String ITEM_NAME_PLAYERS_LIST = "Players_list";
+
+    private static final String SEPARATOR = "_";
+    private static final String CELL = "cell";
+    private static final String LOD = "lod";
+
+    private final String roomId;
+    private final int detailLevel;
+    private final int cellX;
+    private final int cellY;
+
+    private RoomItemName(String roomId, int detailLevel, int cellX, int cellY) {
+        this.roomId = roomId;
+        this.detailLevel = detailLevel;
+        this.cellX = cellX;
+        this.cellY = cellY;
+    }
+
+    /**
+     * @return the parsed name, or null if the name is not a room item name.
+     */
+    public static RoomItemName parse(String itemName) {
+        if (itemName.equals(ITEM_NAME_PLAYERS_LIST)) {
+            return new RoomItemName(RoomRegistry.DEFAULT_ROOM_ID, 0, -1, -1);
+        }
+        if (!itemName.startsWith(ITEM_NAME_PLAYERS_LIST + SEPARATOR)) {
+            return null;
+        }
+
+        String[] tokens = itemName.substring(ITEM_NAME_PLAYERS_LIST.length() + 1).split(SEPARATOR, -1);
+        String roomId = RoomRegistry.DEFAULT_ROOM_ID;
+        int next = 0;
+        if (!tokens[0].equals(CELL) && parseDetailLevel(tokens[0]) < 0) {
+            roomId = tokens[next++];
+            if (!RoomRegistry.isValidRoomId(roomId) || roomId.equals(RoomRegistry.DEFAULT_ROOM_ID)) {
+                return null;
+            }
+        }
+
+        int left = tokens.length - next;
+        if (left == 0) {
+            return new RoomItemName(roomId, 0, -1, -1);
+        }
+        if (left == 1) {
+            int detailLevel = parseDetailLevel(tokens[next]);
+            if (detailLevel < 0) {
+                return null;
+            }
+            return new RoomItemName(roomId, detailLevel, -1, -1);
+        }
+        if (left != 3 || !tokens[next].equals(CELL)) {
+            return null;
+        }
+        int cellX = parseIndex(tokens[next + 1]);
+        int cellY = parseIndex(tokens[next + 2]);
+        if (cellX < 0 || cellY < 0) {
+            return null;
+        }
+        return new RoomItemName(roomId, 0, cellX, cellY);
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    /**
+     * @return whether the item refers to a reduced level of detail.
+     */
+    public boolean isDetail() {
+        return detailLevel > 0;
+    }
+
+    /**
+     * @return the reduced level of detail, starting from 1, or 0 for the
+     * full one.
+     */
+    public int getDetailLevel() {
+        return detailLevel;
+    }
+
+    public boolean isCell() {
+        return cellX >= 0;
+    }
+
+    public int getCellX() {
+        return cellX;
+    }
+
+    public int getCellY() {
+        return cellY;
+    }
+
+    // Private Methods ---------------------------------------------------------
+
+    /**
+     * @return the level of a "lod<n>" token, or -1 if the token is not such.
+     */
+    private static int parseDetailLevel(String token) {
+        if (!token.startsWith(LOD)) {
+            return -1;
+        }
+        int level = parseIndex(token.substring(LOD.length()));
+        return (level > 0 ? level : -1);
+    }
+
+    /**
+     * @return the non-negative number in the token, or -1 if there is none.
+     */
+    private static int parseIndex(String token) {
+        if (token.isEmpty() || token.length() > 9) {
+            return -1;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) < '0' || token.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return Integer.parseInt(token);
+    }
+
+}
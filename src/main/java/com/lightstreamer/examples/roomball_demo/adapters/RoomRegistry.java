@@ -0,0 +1,312 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hosts all the independent rooms of the demo, indexed by room id.
+ * Rooms are created on demand, up to a configured maximum, and are all
+ * stepped by a shared RoomScheduler. Each player and each subscribed item
+ * holds the room it refers to, and a room is removed as soon as nothing
+ * holds it anymore. The registry also owns what is not
+ * related to a single room, i.e. the bandwidth pollers and the statistics.
+ */
+public class RoomRegistry {
+
+    /**
+     * The room addressed by the plain "Players_list" item and joined by
+     * clients that don't ask for a specific room.
+     */
+    public static final String DEFAULT_ROOM_ID = "default";
+
+    private static final Pattern ROOM_ID_PATTERN = Pattern.compile("[A-Za-z0-9]{1,32}");
+
+    /**
+     * Ids reserved to the suffixes of the room items.
+     */
+    private static final Pattern RESERVED_ROOM_ID_PATTERN = Pattern.compile("cell|lod[0-9]+");
+
+    private static final int DEFAULT_MAX_ROOMS = 64;
+
+    private static final long BANDWIDTH_PERIOD = 2000;
+
+    private static final long STATISTICS_PERIOD = TimeUnit.MILLISECONDS.toNanos(2000);
+    private static final int MAX_NOW_STATS = 1780;
+
+    // Member Fields -----------------------------------------------------------
+
+    /**
+     * Map of the hosted rooms indexed by room id.
+     */
+    private final ConcurrentHashMap<String, Box2DRoom> rooms = new ConcurrentHashMap<String, Box2DRoom>();
+
+    private final int worldSizeX;
+
+    private final int worldSizeY;
+
+    private volatile int maxRooms = DEFAULT_MAX_ROOMS;
+
+    private volatile RoomConfig config = new RoomConfig();
+
+    /**
+     * Created along with the first room, based on the config in place
+     * at that time.
+     */
+    private RoomScheduler scheduler = null;
+
+    /**
+     * The interface used to publish the bandwidth of the sessions
+     */
+    private volatile Publisher publisher = new NullPublisher();
+
+    /**
+     * scheduled executor used to recurrently publish the bandwidth.
+     */
+    private final ScheduledExecutorService bandwidthExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * The single poller of the bandwidth of all the sessions that
+     * subscribed to it.
+     */
+    private final PollsBandwidth pollsBandwidth = new PollsBandwidth(publisher);
+
+    private final WorldsStatistics stats = new WorldsStatistics(0);
+
+    // Time of the last overall bandwidth post
+    private long lastStatsTime = System.nanoTime();
+    // Counts posts from last statistics flush
+    private int nowStats = 0;
+
+    private final Logger logger;
+
+    // Constructor -------------------------------------------------------------
+
+    static private RoomRegistry instance = null;
+
+    synchronized static public RoomRegistry getInstance(int world_size_x, int world_size_y) {
+        if (instance == null) {
+            instance = new RoomRegistry(world_size_x, world_size_y);
+        }
+        return instance;
+    }
+
+    synchronized static public RoomRegistry getInstance() {
+        return instance;
+    }
+
+    private RoomRegistry(int worldSizeX, int worldSizeY) {
+        logger = LogManager.getLogger(RoomBallAdapter.ROOM_DEMO_LOGGER_NAME);
+
+        this.worldSizeX = worldSizeX;
+        this.worldSizeY = worldSizeY;
+
+        bandwidthExecutor.scheduleAtFixedRate(pollsBandwidth, 10, BANDWIDTH_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    // Public Methods ----------------------------------------------------------
+
+    /**
+     * Sets the configuration for the rooms still to be created.
+     */
+    public void configure(RoomConfig config) {
+        this.config = config;
+    }
+
+    public void setMaxRooms(int maxRooms) {
+        this.maxRooms = maxRooms;
+    }
+
+    public void setPublisher(Publisher publisher) {
+        this.publisher = publisher;
+        pollsBandwidth.setPublisher(publisher);
+    }
+
+    public static boolean isValidRoomId(String roomId) {
+        return ROOM_ID_PATTERN.matcher(roomId).matches() && !RESERVED_ROOM_ID_PATTERN.matcher(roomId).matches();
+    }
+
+    /**
+     * @return the room with the given id, or null if it has not been created.
+     */
+    public Room getRoom(String roomId) {
+        return rooms.get(roomId);
+    }
+
+    /**
+     * Returns the room with the given id, creating and scheduling it if
+     * needed, and holds it until released through releaseRoom.
+     *
+     * @throws RoomException if the id is not valid or too many rooms are hosted.
+     */
+    public Room acquireRoom(String roomId) throws RoomException {
+        Box2DRoom room = rooms.computeIfPresent(roomId, (id, hosted) -> {
+            hosted.holders++;
+            return hosted;
+        });
+        if (room != null) {
+            return room;
+        }
+        return createRoom(roomId);
+    }
+
+    /**
+     * Releases a room got through acquireRoom; the room is removed and closed
+     * once released by all its holders.
+     */
+    public void releaseRoom(Room room) {
+        final Box2DRoom released = (Box2DRoom) room;
+        Box2DRoom left = rooms.computeIfPresent(room.getId(), (id, hosted) -> {
+            if (hosted != released || --hosted.holders > 0) {
+                return hosted;
+            }
+            return null;
+        });
+        if (left != null || released.holders > 0) {
+            return;
+        }
+
+        synchronized (this) {
+            scheduler.unschedule(released);
+        }
+        released.close();
+        logger.info("Removed room '" + room.getId() + "' (" + rooms.size() + " rooms hosted).");
+    }
+
+    /**
+     * @return whether the rooms have the cell or the level of detail the
+     * item refers to; no room is needed to tell.
+     */
+    public boolean hasChannel(RoomItemName name) {
+        RoomConfig roomConfig = config;
+        if (name.isDetail()) {
+            return name.getDetailLevel() >= 1 && name.getDetailLevel() <= roomConfig.getDetailLevels();
+        }
+        if (name.isCell()) {
+            int cellSize = roomConfig.getInterestCellSize();
+            if (cellSize <= 0) {
+                return false;
+            }
+            // the worlds may not have been created yet
+            int columns = (WorldFactory.rangeX(worldSizeX) + cellSize - 1) / cellSize;
+            int rows = (WorldFactory.rangeY(worldSizeY) + cellSize - 1) / cellSize;
+            return name.getCellX() >= 0 && name.getCellX() < columns && name.getCellY() >= 0 && name.getCellY() < rows;
+        }
+        return true;
+    }
+
+    public Collection<? extends Room> getRooms() {
+        return rooms.values();
+    }
+
+    public void addPollsBandwidth(String sessionID, String itemName, String usr) {
+        pollsBandwidth.addSession(itemName, sessionID, usr);
+    }
+
+    public void killBandChecker(String itemName) {
+        pollsBandwidth.removeSession(itemName);
+    }
+
+    // Private Methods ---------------------------------------------------------
+
+    synchronized private Box2DRoom createRoom(String roomId) throws RoomException {
+        Box2DRoom room = rooms.computeIfPresent(roomId, (id, hosted) -> {
+            hosted.holders++;
+            return hosted;
+        });
+        if (room != null) {
+            return room;
+        }
+
+        if (!isValidRoomId(roomId)) {
+            throw new RoomException("Unable to create room: '" + roomId + "' is not a valid room id.");
+        }
+        if (rooms.size() >= maxRooms) {
+            throw new RoomException("Unable to create room '" + roomId + "': too many rooms.");
+        }
+
+        RoomConfig roomConfig = config;
+        if (scheduler == null) {
+            scheduler = new RoomScheduler(roomConfig.getSchedulerThreads(), roomConfig.getWaitStrategy(),
+                    new StatisticsTask());
+        }
+
+        room = new Box2DRoom(roomId, roomConfig, new WorldFactory().createWorld(worldSizeX, worldSizeY));
+        room.holders = 1;
+        rooms.put(roomId, room);
+        scheduler.schedule(room);
+
+        logger.info("Created room '" + roomId + "' (" + rooms.size() + " rooms hosted).");
+        return room;
+    }
+
+    // Nested Class ------------------------------------------------------------
+
+    /**
+     * Periodically stores the overall bandwidth statistics;
+     * run by the RoomScheduler, hence on an engine thread: it just reads
+     * the total aggregated by the bandwidth poller, with no JMX call.
+     */
+    class StatisticsTask implements Runnable {
+        @Override
+        public void run() {
+            try {
+                long now = System.nanoTime();
+                // Post overall bandwidth utilization.
+                if ( now - lastStatsTime > STATISTICS_PERIOD ) {
+                    storeOverallBandwidthStatistics();
+                    lastStatsTime = now;
+                    if ( nowStats++ > MAX_NOW_STATS ) {
+                        flushStatistics();
+                        nowStats = 0;
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("Unexpected error in send overall Bandwidth information.", e);
+            }
+        }
+    }
+
+    private void storeOverallBandwidthStatistics() {
+        double totBandwidth = getTotalBandwidthOut();
+
+        // update statistics.
+        stats.feedBandwidth(totBandwidth);
+        return ;
+    }
+
+    private double getTotalBandwidthOut() {
+        return pollsBandwidth.getTotalBandwidth();
+    }
+
+    private void flushStatistics() {
+        logger.debug(stats);
+        stats.reset();
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Steps all the rooms on a fixed pool of engine threads, sized on the
+ * available cores, instead of one thread per room.
+ * Every room is bound to a single worker for its whole life, so each room is
+ * still advanced by one thread at a time; a worker runs the steps due for
+ * all its rooms, then waits for the earliest next deadline.
+ */
+class RoomScheduler {
+
+    private static final long IDLE_PERIOD = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long LATENESS_REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(60);
+
+    // Member Fields -----------------------------------------------------------
+
+    private final Worker[] workers;
+
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * Run by the first worker on every cycle; expected to be short.
+     */
+    private final Runnable housekeeping;
+
+    /**
+     * How late the workers wake up with respect to the step deadlines.
+     */
+    private final LatencyHistogram wakeUpLateness = new LatencyHistogram("Engine wake-up lateness");
+
+    private final Logger logger;
+
+    // Nested Class ------------------------------------------------------------
+
+    class Worker implements Runnable {
+
+        private final int index;
+
+        private final CopyOnWriteArrayList<Box2DRoom> rooms = new CopyOnWriteArrayList<Box2DRoom>();
+
+        private Thread thread = null;
+
+        private long lastLatenessReport = 0;
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        void add(Box2DRoom room) {
+            rooms.add(room);
+            if (thread == null) {
+                thread = new Thread(this, "RoomBall engine-" + index);
+                thread.start();
+            }
+        }
+
+        @Override
+        public void run() {
+            lastLatenessReport = System.nanoTime();
+
+            while (true) {
+                long now = System.nanoTime();
+                long deadline = now + IDLE_PERIOD;
+
+                for (Box2DRoom room : rooms) {
+                    try {
+                        long roomDeadline = room.advance(now);
+                        if (roomDeadline - deadline < 0) {
+                            deadline = roomDeadline;
+                        }
+                    } catch (Exception e) {
+                        logger.warn("Unexpected error moving room '" + room.getId() + "'.", e);
+                    }
+                }
+
+                if (index == 0) {
+                    housekeeping.run();
+                }
+
+                now = System.nanoTime();
+                if (deadline - now > 0) {
+                    waitStrategy.waitUntil(deadline);
+                    now = System.nanoTime();
+                }
+                // the cycles already late are recorded as well
+                wakeUpLateness.record(now - deadline);
+                if (index == 0 && now - lastLatenessReport >= LATENESS_REPORT_INTERVAL) {
+                    logger.info(wakeUpLateness);
+                    wakeUpLateness.reset();
+                    InputLatency.report(logger);
+                    lastLatenessReport = now;
+                }
+            }
+        }
+    }
+
+    // Constructor -------------------------------------------------------------
+
+    RoomScheduler(int threads, WaitStrategy waitStrategy, Runnable housekeeping) {
+        logger = LogManager.getLogger(RoomBallAdapter.ROOM_DEMO_LOGGER_NAME);
+
+        this.waitStrategy = waitStrategy;
+        this.housekeeping = housekeeping;
+
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i);
+        }
+        // the first worker also runs the housekeeping, hence it is always alive
+        workers[0].thread = new Thread(workers[0], "RoomBall engine-0");
+        workers[0].thread.start();
+    }
+
+    // Public Methods ----------------------------------------------------------
+
+    /**
+     * Binds the room to the least loaded worker.
+     */
+    synchronized public void schedule(Box2DRoom room) {
+        Worker target = workers[0];
+        for (Worker worker : workers) {
+            if (worker.rooms.size() < target.rooms.size()) {
+                target = worker;
+            }
+        }
+        target.add(room);
+        logger.info("Room '" + room.getId() + "' scheduled on engine thread " + target.index + ".");
+    }
+
+    /**
+     * Unbinds the room from its worker; the room may still be advanced by
+     * a cycle already in progress.
+     */
+    synchronized public void unschedule(Box2DRoom room) {
+        for (Worker worker : workers) {
+            if (worker.rooms.remove(room)) {
+                logger.info("Room '" + room.getId() + "' unscheduled from engine thread " + worker.index + ".");
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Everything the Metadata Adapter keeps about a session: the client context,
+ * the input limits and, once logged in, the player and the room it joined.
+ * Commands reach the player through the KeyState held here, with no further
+ * lookup.
+ * The login state is guarded by the record itself, so that sessions never
+ * contend with each other.
+ */
+public class SessionRecord {
+
+    // Member Fields -----------------------------------------------------------
+
+    private final String sessionID;
+
+    private final String ip;
+
+    private volatile String userAgent = "undetected";
+
+    /**
+     * The input limits of the session and the messages it got dropped.
+     */
+    final TokenBucket commands;
+    final TokenBucket chat;
+    final AtomicLong droppedCommands = new AtomicLong();
+    final AtomicLong droppedChat = new AtomicLong();
+
+    /**
+     * The player of the session, if logged in; guarded by the record.
+     * There can be only one player per session.
+     */
+    private String nickname = null;
+    private Room room = null;
+    private boolean closed = false;
+
+    /**
+     * The key state of the player, once the room has added it.
+     */
+    private volatile KeyState keyState = null;
+
+    // Constructor -------------------------------------------------------------
+
+    public SessionRecord(String sessionID, String ip, TokenBucket commands, TokenBucket chat) {
+        this.sessionID = sessionID;
+        this.ip = (ip != null ? ip : "");
+        this.commands = commands;
+        this.chat = chat;
+    }
+
+    // Public Methods ----------------------------------------------------------
+
+    public String getSessionID() {
+        return sessionID;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    public void setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+    }
+
+    synchronized public String getNickname() {
+        return nickname;
+    }
+
+    synchronized public Room getRoom() {
+        return room;
+    }
+
+    synchronized public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Binds the player to the session; the caller must hold the lock of the
+     * record and have checked that it is neither logged in nor closed.
+     */
+    void setPlayer(String nickname, Room room) {
+        this.nickname = nickname;
+        this.room = room;
+        this.keyState = null;
+    }
+
+    /**
+     * Unbinds the given player, if still bound to the session.
+     *
+     * @return whether the player was bound.
+     */
+    synchronized public boolean clearPlayer(String nickname) {
+        if (this.nickname == null || !this.nickname.equals(nickname)) {
+            return false;
+        }
+        this.nickname = null;
+        this.room = null;
+        this.keyState = null;
+        return true;
+    }
+
+    /**
+     * Marks the session as closed, so that no player can log in anymore,
+     * and unbinds the player; the caller takes over the player, if any, and
+     * has to read its room first.
+     *
+     * @return the name of the player bound to the session, or null.
+     */
+    synchronized public String close() {
+        closed = true;
+        String closedNickname = nickname;
+        nickname = null;
+        room = null;
+        keyState = null;
+        return closedNickname;
+    }
+
+    public KeyState getKeyState() {
+        return keyState;
+    }
+
+    /**
+     * Publishes the key state of the given player, if still bound to the
+     * session.
+     */
+    synchronized public void setKeyState(String nickname, KeyState keyState) {
+        if (!closed && nickname.equals(this.nickname)) {
+            this.keyState = keyState;
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A uniform grid partitioning the world into square cells, indexing the
+ * elements by the cell their published position falls in.
+ * The index is updated incrementally as elements move; positions outside
+ * the world are assigned to the nearest border cell.
+ * Confined to the engine thread of the room.
+ */
+class SpatialGrid {
+
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+
+    private final List<List<AbstractElement>> cells;
+
+    SpatialGrid(int cellSize, int worldSizeX, int worldSizeY) {
+        this.cellSize = cellSize;
+        this.columns = (worldSizeX + cellSize - 1) / cellSize;
+        this.rows = (worldSizeY + cellSize - 1) / cellSize;
+
+        cells = new ArrayList<List<AbstractElement>>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            cells.add(new ArrayList<AbstractElement>());
+        }
+    }
+
+    public int getCellsCount() {
+        return columns * rows;
+    }
+
+    /**
+     * @return the cell with the given coordinates, or -1 if there is none.
+     */
+    public int getCell(int cellX, int cellY) {
+        if (cellX < 0 || cellX >= columns || cellY < 0 || cellY >= rows) {
+            return -1;
+        }
+        return cellY * columns + cellX;
+    }
+
+    /**
+     * @return the cell the given position falls in.
+     */
+    public int cellOf(long x, long y) {
+        int cellX = (int) Math.max(0, Math.min(columns - 1, Math.floorDiv(x, cellSize)));
+        int cellY = (int) Math.max(0, Math.min(rows - 1, Math.floorDiv(y, cellSize)));
+        return cellY * columns + cellX;
+    }
+
+    public List<AbstractElement> getElements(int cell) {
+        return cells.get(cell);
+    }
+
+    public void add(AbstractElement element, int cell) {
+        List<AbstractElement> elements = cells.get(cell);
+        element.setInterestCell(cell, elements.size());
+        elements.add(element);
+    }
+
+    public void remove(AbstractElement element) {
+        int cell = element.getInterestCell();
+        if (cell < 0) {
+            return;
+        }
+        // swap with the last one, to remove in constant time
+        List<AbstractElement> elements = cells.get(cell);
+        int slot = element.getInterestSlot();
+        AbstractElement last = elements.remove(elements.size() - 1);
+        if (last != element) {
+            elements.set(slot, last);
+            last.setInterestCell(cell, slot);
+        }
+        element.setInterestCell(-1, -1);
+    }
+
+    public void move(AbstractElement element, int cell) {
+        remove(element);
+        add(element, cell);
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket, limiting the rate of some operation while allowing short
+ * bursts: tokens are refilled at a steady rate up to the burst size, and
+ * each operation consumes some of them.
+ */
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param ratePerSecond the steady rate of tokens; 0 means no limit.
+     * @param burst the max number of tokens that can be stored.
+     */
+    public TokenBucket(int ratePerSecond, int burst) {
+        this.tokensPerNano = (double) ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, burst);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Consumes the given number of tokens; a count above the burst size can
+     * never be available, hence it is always rejected.
+     *
+     * @return whether the tokens were available, in which case they have
+     * been consumed.
+     */
+    synchronized public boolean tryConsume(int count, long now) {
+        if (tokensPerNano == 0) {
+            return true;
+        }
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        if (count > capacity || tokens < count) {
+            return false;
+        }
+        tokens -= count;
+        return true;
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ua_parser.Client;
+import ua_parser.Parser;
+
+/**
+ * Turns the user agent strings of the sessions into the labels shown for
+ * the players, as "Chrome on Windows".
+ * A single parser, whose regex set is compiled once, is shared by all the
+ * sessions, and the labels of the most recent user agents are cached, as
+ * clients tend to share a few of them. Optionally, the user agents not yet
+ * cached are parsed on a dedicated thread, off the notification thread.
+ */
+class UserAgentLabels {
+
+    /**
+     * A common user agent, parsed on startup so that the regex set is
+     * loaded and exercised before the first session comes.
+     */
+    private static final String WARM_UP_USER_AGENT =
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36";
+
+    // Member Fields -----------------------------------------------------------
+
+    private final Parser parser;
+
+    /**
+     * Labels indexed by user agent, in access order; guarded by itself.
+     */
+    private final LinkedHashMap<String, String> cache;
+
+    /**
+     * The thread parsing the user agents not cached, or null if they are
+     * parsed by the caller.
+     */
+    private final ThreadPoolExecutor parsing;
+
+    private final Logger logger;
+
+    // Constructor -------------------------------------------------------------
+
+    /**
+     * Loads the parser, which may take a while.
+     *
+     * @param cacheSize the max number of labels cached; 0 means no cache.
+     * @param async whether the user agents not cached are parsed on a
+     * dedicated thread.
+     */
+    UserAgentLabels(final int cacheSize, boolean async) {
+        logger = LogManager.getLogger(RoomBallAdapter.ROOM_DEMO_LOGGER_NAME);
+
+        long start = System.nanoTime();
+        parser = new Parser();
+        toLabel(parser.parse(WARM_UP_USER_AGENT));
+        logger.info("User Agent parser loaded in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+
+        cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        if (async) {
+            parsing = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), runnable -> {
+                        Thread thread = new Thread(runnable, "RoomBall user agents");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } else {
+            parsing = null;
+        }
+    }
+
+    // Public Methods ----------------------------------------------------------
+
+    /**
+     * @return the label of the user agent, parsing it if not cached.
+     */
+    public String getLabel(String ua) {
+        String label = getCachedLabel(ua);
+        if (label != null) {
+            return label;
+        }
+
+        label = toLabel(parser.parse(ua));
+        synchronized (cache) {
+            cache.put(ua, label);
+        }
+        return label;
+    }
+
+    /**
+     * Hands the label of the user agent to the target: right away if
+     * cached or if parsing is not asynchronous, otherwise later, from the
+     * parsing thread.
+     */
+    public void resolve(final String ua, final Consumer<String> target) {
+        if (parsing != null && getCachedLabel(ua) == null) {
+            try {
+                parsing.execute(() -> {
+                    try {
+                        target.accept(getLabel(ua));
+                    } catch (Exception e) {
+                        logger.warn("Unable to parse User Agent: " + ua, e);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // parsed right here
+            }
+        }
+        target.accept(getLabel(ua));
+    }
+
+    // Private Methods ---------------------------------------------------------
+
+    private String getCachedLabel(String ua) {
+        synchronized (cache) {
+            return cache.get(ua);
+        }
+    }
+
+    private static String toLabel(Client c) {
+        return ( c.userAgent.family.equals("Android") ?
+            c.userAgent.family + " Browser on " + c.os.family :
+            c.userAgent.family + " on " + c.os.family);
+    }
+
+}
@@ -0,0 +1,35 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+/**
+ * The way a thread waits until the next scheduled deadline.
+ * Implementations trade CPU usage for wake-up accuracy.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Blocks the calling thread until System.nanoTime() reaches the deadline.
+     * May return slightly late, but never early unless interrupted.
+     *
+     * @param deadline the System.nanoTime() to wait for
+     */
+    public void waitUntil(long deadline);
+
+}
@@ -0,0 +1,136 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+class WaitStrategyFactory {
+
+    public static final String SLEEP = "sleep";
+    public static final String PARK = "park";
+    public static final String YIELD = "yield";
+    public static final String SPIN = "spin";
+
+    private static final long DEFAULT_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    // Nested Classes ----------------------------------------------------------
+
+    /**
+     * Thread.sleep based; cheapest on CPU, but subject to the
+     * millisecond granularity of the OS scheduler.
+     */
+    static class SleepWaitStrategy implements WaitStrategy {
+        @Override
+        public void waitUntil(long deadline) {
+            long delay = deadline - System.nanoTime();
+            if (delay <= 0) {
+                return;
+            }
+            try {
+                Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+            } catch (InterruptedException ie) {
+                // Skip.
+            }
+        }
+    }
+
+    /**
+     * LockSupport.parkNanos based; wakes up within tens of microseconds on
+     * most hosts, at a negligible CPU cost.
+     */
+    static class ParkWaitStrategy implements WaitStrategy {
+        @Override
+        public void waitUntil(long deadline) {
+            long delay;
+            while ((delay = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+                if (Thread.interrupted()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Yields the CPU until the deadline; accurate, but keeps a core busy
+     * whenever no other thread is runnable.
+     */
+    static class YieldWaitStrategy implements WaitStrategy {
+        @Override
+        public void waitUntil(long deadline) {
+            while (deadline - System.nanoTime() > 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Parks until shortly before the deadline, then busy spins through the
+     * last spinNanos; the most accurate, at the cost of that spin time.
+     */
+    static class SpinThenParkWaitStrategy implements WaitStrategy {
+
+        private final long spinNanos;
+
+        SpinThenParkWaitStrategy(long spinNanos) {
+            this.spinNanos = spinNanos;
+        }
+
+        @Override
+        public void waitUntil(long deadline) {
+            long delay;
+            while ((delay = deadline - System.nanoTime()) > spinNanos) {
+                LockSupport.parkNanos(delay - spinNanos);
+                if (Thread.interrupted()) {
+                    return;
+                }
+            }
+            while (deadline - System.nanoTime() > 0) {
+                // Busy spin.
+            }
+        }
+    }
+
+    // Public Methods ----------------------------------------------------------
+
+    /**
+     * Creates the WaitStrategy configured by name.
+     *
+     * @param name one of "sleep", "park", "yield" or "spin"
+     * @param spinMicros the final spinning window, used by "spin" only;
+     * a non positive value means the default
+     * @return the WaitStrategy
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public WaitStrategy createWaitStrategy(String name, long spinMicros) {
+        if (SLEEP.equalsIgnoreCase(name)) {
+            return new SleepWaitStrategy();
+        } else if (PARK.equalsIgnoreCase(name)) {
+            return new ParkWaitStrategy();
+        } else if (YIELD.equalsIgnoreCase(name)) {
+            return new YieldWaitStrategy();
+        } else if (SPIN.equalsIgnoreCase(name)) {
+            long spinNanos = (spinMicros > 0 ? TimeUnit.MICROSECONDS.toNanos(spinMicros) : DEFAULT_SPIN_NANOS);
+            return new SpinThenParkWaitStrategy(spinNanos);
+        }
+        throw new IllegalArgumentException("Unknown wait strategy '" + name + "'");
+    }
+
+}
@@ -39,10 +39,27 @@ class WorldFactory {
 
     public static int  bRangeX = WORLD_SIZE_X;
     public static int  bRangeY = WORLD_SIZE_Y;
-    private static final int  bThick = 50;
+    static final int BORDER_THICKNESS = 50;
+    private static final int  bThick = BORDER_THICKNESS;
     private int  bSizeX = bRangeX + 2 * bThick;
     private int  bSizeY = bRangeY + 2 * bThick;
 
+    /**
+     * @return the range of the world on the x axis, as created by
+     * createWorld with the given size.
+     */
+    static int rangeX(int world_size_x) {
+        return ( world_size_x != 0 ? world_size_x : WORLD_SIZE_X );
+    }
+
+    /**
+     * @return the range of the world on the y axis, as created by
+     * createWorld with the given size.
+     */
+    static int rangeY(int world_size_y) {
+        return ( world_size_y != 0 ? world_size_y : WORLD_SIZE_Y );
+    }
+
     private final Logger logger = LogManager.getLogger(RoomBallAdapter.ROOM_DEMO_LOGGER_NAME);
 
     public World createWorld(int world_size_x, int world_size_y) {
@@ -111,17 +128,19 @@ class WorldFactory {
                 logger.debug("Begin contact");
                 Object bodyInfoA = contact.getFixtureA().getBody().getUserData();
                 Object bodyInfoB = contact.getFixtureB().getBody().getUserData();
+                notifyContact(bodyInfoA);
+                notifyContact(bodyInfoB);
                 Body ball = null;
-                if (bodyInfoA != null && bodyInfoA.equals(Ball.USERDATA_BALL)) {
+                if (bodyInfoA instanceof Ball) {
                     ball = contact.getFixtureA().getBody();
-                    if (bodyInfoB != null && bodyInfoB.equals(Player.USERDATA_PLAYER)) {
+                    if (bodyInfoB instanceof Player) {
                         // scontro palla-player
                     } else {
                         return;
                     }
-                } else if (bodyInfoB != null && bodyInfoB.equals(Ball.USERDATA_BALL)) {
+                } else if (bodyInfoB instanceof Ball) {
                     ball = contact.getFixtureB().getBody();
-                    if (bodyInfoA != null && bodyInfoA.equals(Player.USERDATA_PLAYER)) {
+                    if (bodyInfoA instanceof Player) {
                         // scontro palla-player
                     } else {
                         return;
@@ -137,10 +156,12 @@ class WorldFactory {
                 logger.debug("End contact");
                 Object bodyInfoA = contact.getFixtureA().getBody().getUserData();
                 Object bodyInfoB = contact.getFixtureB().getBody().getUserData();
+                notifyContact(bodyInfoA);
+                notifyContact(bodyInfoB);
                 Body ball = null;
-                if (bodyInfoA != null && bodyInfoA.equals(Ball.USERDATA_BALL)) {
+                if (bodyInfoA instanceof Ball) {
                     ball = contact.getFixtureA().getBody();
-                } else if (bodyInfoB != null && bodyInfoB.equals(Ball.USERDATA_BALL)) {
+                } else if (bodyInfoB instanceof Ball) {
                     ball = contact.getFixtureB().getBody();
                 }
                 if (ball != null) {
@@ -156,6 +177,16 @@ class WorldFactory {
             @Override
             public void postSolve(Contact contact, ContactImpulse impulse) {
             }
+
+            /**
+             * Lets an element know that its motion is no longer ballistic,
+             * for the sake of clients that extrapolate it.
+             */
+            private void notifyContact(Object bodyInfo) {
+                if (bodyInfo instanceof AbstractElement) {
+                    ((AbstractElement) bodyInfo).notifyContact();
+                }
+            }
         });
     }
 
@@ -0,0 +1,83 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class Box2DRoomAllocationTest {
+
+    private static final int PLAYERS = 20;
+    private static final int WARM_UP_STEPS = 20000;
+    private static final int MEASURED_STEPS = 10000;
+
+    /**
+     * Tolerance for what is allocated by the JVM itself, on the test thread,
+     * while measuring; far less than a single allocation per step.
+     */
+    private static final long MAX_ALLOCATED_BYTES = 16 * 1024;
+
+    private Box2DRoom room;
+
+    @Before
+    public void setUp() {
+        room = new Box2DRoom("test", new RoomConfig(), new WorldFactory().createWorld(0, 0));
+
+        int[] keys = { KeyState.KEY_LEFT, KeyState.KEY_UP, KeyState.KEY_RIGHT, KeyState.KEY_DOWN };
+        for (int i = 0; i < PLAYERS; i++) {
+            CompletableFuture<KeyState> added = room.addPlayer("player" + i, "test");
+            // the room is not started, hence it just runs the mailbox
+            room.advance(System.nanoTime());
+            // players keep pushing, so that they collide with each other,
+            // with the ball and with the borders
+            added.getNow(null).press(keys[i % keys.length]);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        room.close();
+    }
+
+    @Test
+    public void steadyStateStepAllocatesNothing() {
+        Assume.assumeTrue("thread allocation measurement not supported", Allocations.isSupported());
+
+        for (int i = 0; i < WARM_UP_STEPS; i++) {
+            room.step();
+        }
+
+        // warms the measurement up as well
+        Allocations.current();
+        long before = Allocations.current();
+        for (int i = 0; i < MEASURED_STEPS; i++) {
+            room.step();
+        }
+        long allocated = Allocations.current() - before;
+
+        assertTrue(MEASURED_STEPS + " steps allocated " + allocated + " bytes", allocated < MAX_ALLOCATED_BYTES);
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ *
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.lightstreamer.examples.roomball_demo.adapters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class CoordinateStringsTest {
+
+    private static final int MARGIN = 2 * WorldFactory.BORDER_THICKNESS;
+
+    private static final int ITERATIONS = 1000000;
+
+    /**
+     * Positions around zero, around the rounding boundaries and around the
+     * limits of the table.
+     */
+    private static double[] samplePositions() {
+        int max = Math.max(WorldFactory.bRangeX, WorldFactory.bRangeY) + MARGIN;
+        return new double[] {
+            0.0, -0.0, 0.49, 0.5, 0.51, -0.49, -0.5, -0.51,
+            1.5, 2.5, -1.5, -2.5, 99.4999, 99.5, -99.5,
+            -MARGIN, -MARGIN - 0.5, -MARGIN - 0.51, -MARGIN - 1, -MARGIN - 1000.7,
+            max, max + 0.49, max + 0.5, max + 1, max + 1000.2,
+            Integer.MAX_VALUE + 10.0, Integer.MIN_VALUE - 10.0
+        };
+    }
+
+    @Test
+    public void matchesConcatenationOverTheWholeTable() {
+        int max = Math.max(WorldFactory.bRangeX, WorldFactory.bRangeY) + MARGIN;
+        for (long coordinate = -MARGIN - 10; coordinate <= max + 10; coordinate++) {
+            assertEquals("" + coordinate, CoordinateStrings.toString(coordinate));
+        }
+    }
+
+    @Test
+    public void matchesConcatenationOfRoundedPositions() {
+        for (double position : samplePositions()) {
+            assertEquals("position " + position, "" + Math.round(position), CoordinateStrings.toString(Math.round(position)));
+        }
+    }
+
+    @Test
+    public void returnsTheSameStringEveryTime() {
+        for (long coordinate = -MARGIN; coordinate <= WorldFactory.bRangeX + MARGIN; coordinate++) {
+            assertSame(CoordinateStrings.toString(coordinate), CoordinateStrings.toString(coordinate));
+        }
+    }
+
+    /**
+     * Compares the table against the concatenation it replaced, in
+     * allocations and in time; only allocations are asserted, as timings
+     * depend on the machine.
+     */
+    @Test
+    public void comparesWithConcatenation() {
+        Assume.assumeTrue("thread allocation measurement not supported", Allocations.isSupported());
+
+        double[] positions = new double[1024];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = (i * 7.31) % (WorldFactory.bRangeX + 1);
+        }
+
+        long sink = 0;
+        for (int round = 0; round < 3; round++) {
+            Allocations.current();
+            long allocatedBefore = Allocations.current();
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += CoordinateStrings.toString(Math.round(positions[i & 1023])).length();
+            }
+            long tableNanos = System.nanoTime() - start;
+            long tableBytes = Allocations.current() - allocatedBefore;
+
+            allocatedBefore = Allocations.current();
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += ("" + Math.round(positions[i & 1023])).length();
+            }
+            long concatNanos = System.nanoTime() - start;
+            long concatBytes = Allocations.current() - allocatedBefore;
+
+            System.out.println("CoordinateStrings round " + round + ": table " + tableNanos / ITERATIONS + " ns/op, "
+                    + tableBytes + " bytes; concatenation " + concatNanos / ITERATIONS + " ns/op, " + concatBytes + " bytes.");
+
+            if (round == 2) {
+                assertTrue("table allocated " + tableBytes + " bytes", tableBytes < 16 * 1024);
+                assertTrue("concatenation allocated only " + concatBytes + " bytes", concatBytes > tableBytes);
+            }
+        }
+        assertTrue(sink > 0);
+    }
+
+}